@@ -0,0 +1,104 @@
+package processing;
+
+import com.atomikos.icatch.jta.UserTransactionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same account operations on the SQL backend ({@link H2XaDatabaseManager}) and on the key-value one
+ * ({@link MvStoreDatabaseManager}), each against a fresh store in a temp folder, outside of a JTA transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class DatabaseBackendBenchmark {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000.00);
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(0.01);
+
+    @Param({"sql", "mvstore"})
+    String backend;
+
+    @Param({"1000"})
+    int accountsQty;
+
+    private UserTransactionManager tm;
+    private Path dbFolder;
+    private DatabaseManager db;
+    private String[] ibans;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tm = new UserTransactionManager();
+        tm.init();
+        dbFolder = Files.createTempDirectory(backend + "-bench");
+        String folder = dbFolder.toAbsolutePath().toString();
+        db = "mvstore".equals(backend)
+                ? new MvStoreDatabaseManager("BENCH01", folder, tm, Stages.metrics())
+                : new H2XaDatabaseManager("BENCH01", folder);
+        ibans = new String[accountsQty];
+        for (int i = 0; i < accountsQty; i++) {
+            ibans[i] = db.createAccount("BENCH01");
+            db.deposit(ibans[i], INITIAL_BALANCE);
+        }
+    }
+
+    @SuppressWarnings("all")
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        db.close();
+        tm.close();
+        Files.walk(dbFolder)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private final SplittableRandom random = new SplittableRandom();
+
+        String next(DatabaseBackendBenchmark b) {
+            return b.ibans[random.nextInt(b.accountsQty)];
+        }
+    }
+
+    @Benchmark
+    public boolean withdraw(Picker picker) {
+        return db.withdraw(picker.next(this), AMOUNT);
+    }
+
+    @Benchmark
+    public void deposit(Picker picker) throws SQLException {
+        db.deposit(picker.next(this), AMOUNT);
+    }
+
+    @Benchmark
+    public String status(Picker picker) {
+        return db.status(picker.next(this));
+    }
+
+    @Benchmark
+    public DatabaseManager.TransferResult transfer(Picker picker) throws SQLException {
+        return db.transfer(picker.next(this), picker.next(this), AMOUNT);
+    }
+}
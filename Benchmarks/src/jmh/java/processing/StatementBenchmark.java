@@ -0,0 +1,134 @@
+package processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposit and withdraw SQL built with String.format and run through a Statement (the previous implementation)
+ * against the parameterized {@link AccountStatements} run through a PreparedStatement, on plain H2 connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class StatementBenchmark {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000.00);
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(0.01);
+
+    @Param({"1000"})
+    int accountsQty;
+
+    private Path dbFolder;
+    private String url;
+    private Connection keepAlive;
+    private String[] ibans;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbFolder = Files.createTempDirectory("h2-statement-bench");
+        url = String.format("jdbc:h2:%s/bench;MVCC=true;QUERY_CACHE_SIZE=32", dbFolder.toAbsolutePath());
+        keepAlive = DriverManager.getConnection(url, "sa", "sa");
+        try (Statement s = keepAlive.createStatement()) {
+            s.execute("CREATE TABLE ACCOUNT (ID BIGINT AUTO_INCREMENT PRIMARY KEY, IBAN VARCHAR(128) NOT NULL UNIQUE, "
+                    + "VALUE DECIMAL(20, 2) DEFAULT 0.00 NOT NULL, LAST_UPDATE_DATETIME TIMESTAMP NOT NULL)");
+        }
+        ibans = new String[accountsQty];
+        try (PreparedStatement ps = keepAlive.prepareStatement(AccountStatements.INSERT)) {
+            for (int i = 0; i < accountsQty; i++) {
+                ibans[i] = String.format("BENCH01_%08d", i + 1);
+                ps.setString(1, ibans[i]);
+                ps.setBigDecimal(2, INITIAL_BALANCE);
+                ps.setTimestamp(3, new java.sql.Timestamp(System.currentTimeMillis()));
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    @SuppressWarnings("all")
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        keepAlive.close();
+        Files.walk(dbFolder)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        private final SplittableRandom random = new SplittableRandom();
+        private Connection conn;
+
+        @Setup(Level.Trial)
+        public void open(StatementBenchmark b) throws SQLException {
+            conn = DriverManager.getConnection(b.url, "sa", "sa");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            conn.close();
+        }
+
+        String next(StatementBenchmark b) {
+            return b.ibans[random.nextInt(b.accountsQty)];
+        }
+    }
+
+    @Benchmark
+    public int depositFormattedStatement(Session session) throws SQLException {
+        try (Statement s = session.conn.createStatement()) {
+            return s.executeUpdate(String.format("UPDATE ACCOUNT SET VALUE = VALUE + %s WHERE IBAN = '%s'",
+                    AMOUNT, session.next(this)));
+        }
+    }
+
+    @Benchmark
+    public int depositPreparedStatement(Session session) throws SQLException {
+        try (PreparedStatement ps = session.conn.prepareStatement(AccountStatements.DEPOSIT)) {
+            ps.setBigDecimal(1, AMOUNT);
+            ps.setString(2, session.next(this));
+            return ps.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int withdrawFormattedStatement(Session session) throws SQLException {
+        try (Statement s = session.conn.createStatement()) {
+            return s.executeUpdate(String.format("UPDATE ACCOUNT SET VALUE = CASEWHEN(VALUE-%s < 0, '', VALUE-%s) WHERE IBAN = '%s'",
+                    AMOUNT, AMOUNT, session.next(this)));
+        }
+    }
+
+    @Benchmark
+    public int withdrawPreparedStatement(Session session) throws SQLException {
+        try (PreparedStatement ps = session.conn.prepareStatement(AccountStatements.WITHDRAW)) {
+            ps.setBigDecimal(1, AMOUNT);
+            ps.setString(2, session.next(this));
+            ps.setBigDecimal(3, AMOUNT);
+            return ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package processing;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.net.JdkSSLEngineOptions;
+import io.vertx.core.net.OpenSSLEngineOptions;
+import io.vertx.core.net.PemKeyCertOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests to a server with the TLS options of {@link SslRestServer}, each on a new connection (handshake-heavy,
+ * resumed from the session cache after the first one) against requests over kept-alive connections,
+ * for the JDK and OpenSSL engines with HTTP/1.1 and for OpenSSL with HTTP/2.
+ * The JDK engine has no ALPN on Java 8, so HTTP/2 over it is not in the grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class TlsConnectionBenchmark {
+    private static final int PORT = 4291;
+    private static final File CERTIFICATES = new File("../ProcessingCenter");
+
+    @Param({"jdk/http1.1", "openssl/http1.1", "openssl/http2"})
+    String transport;
+
+    private boolean http2;
+    private Vertx vertx;
+    private HttpServer server;
+    private HttpClient shortConnections;
+    private HttpClient longConnections;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean openSsl = transport.startsWith("openssl/");
+        http2 = transport.endsWith("/http2");
+        vertx = Vertx.vertx();
+        HttpServerOptions serverOptions = SslRestServer.httpServerOptions(http2,
+                SslRestServer.DEFAULT_MAX_CONCURRENT_STREAMS, openSsl)
+                .setKeyCertOptions(new PemKeyCertOptions()
+                        .setKeyPath(new File(CERTIFICATES, "key.pem").getAbsolutePath())
+                        .setCertPath(new File(CERTIFICATES, "cert.pem").getAbsolutePath()));
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        server = vertx.createHttpServer(serverOptions)
+                .requestHandler(request -> request.response().end("{}"))
+                .listen(PORT, result -> {
+                    if (result.succeeded()) {
+                        listening.complete(result.result());
+                    } else {
+                        listening.completeExceptionally(result.cause());
+                    }
+                });
+        listening.join();
+        shortConnections = vertx.createHttpClient(clientOptions(openSsl).setKeepAlive(false));
+        longConnections = vertx.createHttpClient(clientOptions(openSsl).setKeepAlive(true).setMaxPoolSize(4));
+    }
+
+    private HttpClientOptions clientOptions(boolean openSsl) {
+        HttpClientOptions options = new HttpClientOptions()
+                .setSsl(true)
+                .setTrustAll(true)
+                .setVerifyHost(false)
+                .setDefaultHost("localhost")
+                .setDefaultPort(PORT);
+        if (openSsl) {
+            options.setOpenSslEngineOptions(new OpenSSLEngineOptions().setSessionCacheEnabled(true));
+        } else {
+            options.setJdkSslEngineOptions(new JdkSSLEngineOptions());
+        }
+        if (http2) {
+            options.setUseAlpn(true)
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setAlpnVersions(Arrays.asList(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1));
+        }
+        return options;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        shortConnections.close();
+        longConnections.close();
+        server.close();
+        vertx.close();
+    }
+
+    @Benchmark
+    public int newConnectionPerRequest() {
+        return get(shortConnections, true).join();
+    }
+
+    @Benchmark
+    public int keptAliveConnection() {
+        return get(longConnections, false).join();
+    }
+
+    private static CompletableFuture<Integer> get(HttpClient client, boolean closeConnection) {
+        CompletableFuture<Integer> status = new CompletableFuture<>();
+        client.get("/", response -> response.bodyHandler(body -> {
+            if (closeConnection) {
+                // HTTP/2 connections are not closed by the keep-alive setting
+                response.request().connection().close();
+            }
+            status.complete(response.statusCode());
+        })).exceptionHandler(status::completeExceptionally).end();
+        return status;
+    }
+}
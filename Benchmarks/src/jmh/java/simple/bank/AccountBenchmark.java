@@ -0,0 +1,74 @@
+package simple.bank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contended deposit/withdraw on a single shared {@link BankAccount}.
+ * Thread count is fixed per method, so one run gives the 1..N scaling curve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountBenchmark {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000_000.00);
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(12.34);
+
+    @Param({"BIG_DECIMAL", "FIXED_POINT"})
+    AccountType accountType;
+
+    private BankAccount account;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        account = accountType.create();
+        account.deposit(INITIAL_BALANCE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void deposit_1thread() {
+        account.deposit(AMOUNT);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void deposit_4threads() {
+        account.deposit(AMOUNT);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void deposit_maxThreads() {
+        account.deposit(AMOUNT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean withdraw_1thread() {
+        return account.withdraw(AMOUNT);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean withdraw_4threads() {
+        return account.withdraw(AMOUNT);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean withdraw_maxThreads() {
+        return account.withdraw(AMOUNT);
+    }
+}
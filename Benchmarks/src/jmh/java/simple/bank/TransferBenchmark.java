@@ -0,0 +1,109 @@
+package simple.bank;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SimpleBank#transferMoney} between random pairs of accounts.
+ * "uniform" picks every account with the same probability, "hot" sends
+ * {@code hotTrafficPercent} of the transfers to the first {@code hotAccounts} accounts.
+ * With {@code shards > 0} the transfers go through the sharded single-writer engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransferBenchmark {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000.00);
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(0.01);
+
+    @Param({"BIG_DECIMAL", "FIXED_POINT", "COMPACT"})
+    String store;
+
+    @Param({"0", "4"})
+    int shards;
+
+    @Param({"10000"})
+    int accountsQty;
+
+    @Param({"uniform", "hot"})
+    String distribution;
+
+    @Param({"16"})
+    int hotAccounts;
+
+    @Param({"90"})
+    int hotTrafficPercent;
+
+    private SimpleBank bank;
+    private String[] ibans;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bank = new SimpleBank("COMPACT".equals(store)
+                ? new CompactAccountStore()
+                : new MapAccountStore(AccountType.valueOf(store)), shards);
+        ibans = new String[accountsQty];
+        for (int i = 0; i < accountsQty; i++) {
+            ibans[i] = new JsonObject(bank.openAccount()).getJsonObject("value").getString("iban");
+            bank.addMoneyToAccount(ibans[i], INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bank.deleteAllAccounts();
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next(TransferBenchmark b) {
+            if ("hot".equals(b.distribution) && random.nextInt(100) < b.hotTrafficPercent) {
+                return random.nextInt(b.hotAccounts);
+            }
+            return random.nextInt(b.accountsQty);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void transfer_1thread(Picker picker) {
+        transfer(picker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void transfer_4threads(Picker picker) {
+        transfer(picker);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void transfer_maxThreads(Picker picker) {
+        transfer(picker);
+    }
+
+    private void transfer(Picker picker) {
+        int source = picker.next(this);
+        int target = picker.next(this);
+        if (source == target) {
+            target = (target + 1) % accountsQty;
+        }
+        bank.transferMoney(ibans[source], ibans[target], AMOUNT);
+    }
+}
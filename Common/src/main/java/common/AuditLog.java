@@ -0,0 +1,247 @@
+package common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToLongFunction;
+
+/**
+ * Audit trail of the money movements in compact binary files, written off the request path.
+ * <p>
+ * Operations put their fields into the slots of a preallocated ring, nothing is allocated per record.
+ * A background thread drains the ring into the current file, starts a new file when it reaches
+ * {@code maxFileBytes} and deletes the oldest ones beyond {@code maxFiles}.
+ * When the ring is full the operation waits for the drainer rather than losing the record,
+ * unless the log is closed or failed, then there is no drainer to wait for and the record is dropped.
+ * <p>
+ * Record layout: long time in epoch milliseconds, int type, int result, long source account id,
+ * long target account id, long amount in minor units. The account id is given by the {@code accountIds}
+ * of the application, unknown accounts and amounts are -1.
+ */
+public class AuditLog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    public static final int RECORD_SIZE = 40;
+    public static final int DEPOSIT = 1;
+    public static final int TRANSFER = 2;
+    public static final int DECLINED = 0;
+    public static final int COMPLETED = 1;
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L << 20;
+    public static final int DEFAULT_MAX_FILES = 10;
+    private static final String FILE_PREFIX = "audit-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int DRAIN_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Receives the audit records of a file in write order.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void accept(long timeMillis, int type, int result, long sourceAccountId, long targetAccountId, long amount);
+    }
+
+    private final Path folder;
+    private final ToLongFunction<String> accountIds;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final int[] types;
+    private final int[] results;
+    private final long[] sources;
+    private final long[] targets;
+    private final long[] amounts;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(DRAIN_BATCH * RECORD_SIZE);
+    private final Thread drainer;
+    private FileChannel file;
+    private long fileBytes;
+    private long fileStamp;
+    private volatile boolean running = true;
+    private volatile boolean failed;
+
+    public AuditLog(Path folder, ToLongFunction<String> accountIds) throws IOException {
+        this(folder, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES, accountIds);
+    }
+
+    /**
+     * @param accountIds parses the account id of an IBAN without allocating, -1 if it is unknown
+     */
+    public AuditLog(Path folder, int capacity, long maxFileBytes, int maxFiles, ToLongFunction<String> accountIds)
+            throws IOException {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.folder = Files.createDirectories(folder);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.accountIds = accountIds;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[capacity];
+        this.types = new int[capacity];
+        this.results = new int[capacity];
+        this.sources = new long[capacity];
+        this.targets = new long[capacity];
+        this.amounts = new long[capacity];
+        rollFile();
+        this.drainer = new Thread(this::drainLoop, "audit-log-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    public void record(int type, boolean completed, String sourceIban, String targetIban, long amount) {
+        long sourceId = sourceIban != null ? accountIds.applyAsLong(sourceIban) : -1;
+        long targetId = targetIban != null ? accountIds.applyAsLong(targetIban) : -1;
+        long position;
+        int index;
+        for (;;) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                if (failed || !running) {
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+        times[index] = System.currentTimeMillis();
+        types[index] = type;
+        results[index] = completed ? COMPLETED : DECLINED;
+        sources[index] = sourceId;
+        targets[index] = targetId;
+        amounts[index] = amount;
+        sequences.set(index, position + 1);
+    }
+
+    /**
+     * @return the audit files of the folder, oldest first
+     */
+    public static List<Path> files(Path folder) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    public static void read(Path file, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(DRAIN_BATCH * RECORD_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    handler.accept(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong(),
+                            buffer.getLong(), buffer.getLong());
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            for (;;) {
+                int drained = drain();
+                if (drained == 0) {
+                    if (!running && tail.get() == head) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            file.close();
+        } catch (IOException e) {
+            failed = true;
+            logger.error("Audit log is failed, further records are dropped: {}", e.getMessage());
+        }
+    }
+
+    private int drain() throws IOException {
+        batch.clear();
+        int drained = 0;
+        while (drained < DRAIN_BATCH) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            batch.putLong(times[index]).putInt(types[index]).putInt(results[index])
+                    .putLong(sources[index]).putLong(targets[index]).putLong(amounts[index]);
+            sequences.set(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        if (drained > 0) {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                file.write(batch);
+            }
+            fileBytes += (long) drained * RECORD_SIZE;
+            if (fileBytes >= maxFileBytes) {
+                file.close();
+                rollFile();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Files are named by their start time, so the name order is the write order also across restarts.
+     */
+    private void rollFile() throws IOException {
+        fileStamp = Math.max(System.currentTimeMillis(), fileStamp + 1);
+        for (;;) {
+            try {
+                file = FileChannel.open(folder.resolve(String.format("%s%015d%s", FILE_PREFIX, fileStamp, FILE_SUFFIX)),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                fileStamp++;
+            }
+        }
+        fileBytes = 0;
+        List<Path> files = files(folder);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package common;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary frames of the TCP transfer protocol, spoken by SimpleBank and ProcessingCenter alike.
+ * <p>
+ * Every frame is an int length followed by that many bytes. A request is
+ * long correlation id, byte operation, 16 bytes source IBAN, 16 bytes target IBAN, long amount in minor units;
+ * a deposit and a status request carry their IBAN in the target field. A response is
+ * long correlation id, byte result, long amount in minor units (the balance for a status request).
+ * IBANs are ASCII, padded with zero bytes. Responses may come in another order than the requests,
+ * the correlation id tells which request they answer.
+ */
+public final class BinaryProtocol {
+    public static final int IBAN_SIZE = 16;
+    public static final int REQUEST_SIZE = 8 + 1 + IBAN_SIZE + IBAN_SIZE + 8;
+    public static final int RESPONSE_SIZE = 8 + 1 + 8;
+
+    public static final byte DEPOSIT = 1;
+    public static final byte TRANSFER = 2;
+    public static final byte STATUS = 3;
+
+    public static final byte OK = 0;
+    public static final byte DECLINED = 1;
+    public static final byte REJECTED = 2;
+    public static final byte NOT_FOUND = 3;
+    public static final byte UNSUPPORTED = 4;
+
+    private static final int LENGTH_SIZE = 4;
+
+    private BinaryProtocol() {
+    }
+
+    public static Buffer request(long correlationId, byte operation, String sourceIban, String targetIban, long amount) {
+        Buffer frame = Buffer.buffer(LENGTH_SIZE + REQUEST_SIZE)
+                .appendInt(REQUEST_SIZE)
+                .appendLong(correlationId)
+                .appendByte(operation);
+        appendIban(frame, sourceIban);
+        appendIban(frame, targetIban);
+        return frame.appendLong(amount);
+    }
+
+    public static Buffer response(long correlationId, byte result, long amount) {
+        return Buffer.buffer(LENGTH_SIZE + RESPONSE_SIZE)
+                .appendInt(RESPONSE_SIZE)
+                .appendLong(correlationId)
+                .appendByte(result)
+                .appendLong(amount);
+    }
+
+    public static long correlationId(Buffer body) {
+        return body.getLong(0);
+    }
+
+    public static byte operation(Buffer body) {
+        return body.getByte(8);
+    }
+
+    public static String sourceIban(Buffer body) {
+        return iban(body, 9);
+    }
+
+    public static String targetIban(Buffer body) {
+        return iban(body, 9 + IBAN_SIZE);
+    }
+
+    public static long requestAmount(Buffer body) {
+        return body.getLong(9 + 2 * IBAN_SIZE);
+    }
+
+    public static byte result(Buffer body) {
+        return body.getByte(8);
+    }
+
+    public static long responseAmount(Buffer body) {
+        return body.getLong(9);
+    }
+
+    /**
+     * Splits the incoming bytes into frame bodies of the expected size.
+     * A frame of another size breaks the stream, then {@code onError} is called and nothing more is parsed.
+     */
+    public static RecordParser frameParser(int bodySize, Handler<Buffer> onBody, Runnable onError) {
+        RecordParser parser = RecordParser.newFixed(LENGTH_SIZE, null);
+        parser.setOutput(new Handler<Buffer>() {
+            private boolean expectLength = true;
+            private boolean broken;
+
+            @Override
+            public void handle(Buffer chunk) {
+                if (broken) {
+                    return;
+                }
+                if (expectLength) {
+                    if (chunk.getInt(0) != bodySize) {
+                        broken = true;
+                        onError.run();
+                        return;
+                    }
+                    expectLength = false;
+                    parser.fixedSizeMode(bodySize);
+                } else {
+                    expectLength = true;
+                    parser.fixedSizeMode(LENGTH_SIZE);
+                    onBody.handle(chunk);
+                }
+            }
+        });
+        return parser;
+    }
+
+    private static void appendIban(Buffer frame, String iban) {
+        byte[] bytes = iban != null ? iban.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        if (bytes.length > IBAN_SIZE) {
+            throw new IllegalArgumentException("IBAN [" + iban + "] is longer than " + IBAN_SIZE + " bytes");
+        }
+        frame.appendBytes(bytes);
+        for (int i = bytes.length; i < IBAN_SIZE; i++) {
+            frame.appendByte((byte) 0);
+        }
+    }
+
+    private static String iban(Buffer body, int offset) {
+        int end = offset;
+        while (end < offset + IBAN_SIZE && body.getByte(end) != 0) {
+            end++;
+        }
+        return end > offset ? body.getString(offset, end, "US-ASCII") : null;
+    }
+}
@@ -0,0 +1,206 @@
+package common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outcomes of recent requests by their idempotency key, so a retried request is answered without running it again.
+ * <p>
+ * Keys are kept as 64-bit fingerprints in open-addressing tables where a slot is claimed by a CAS and never freed,
+ * so two callers with the same key always meet at the same slot. Keys expire by generations: the current table
+ * takes new keys, the previous one is still looked up, and both move on after {@code ttl} or once half of the slots
+ * of the current table are taken, whichever comes first. A key is remembered for one to two {@code ttl},
+ * unless more than {@code capacity / 2} new keys arrive meanwhile, so the tables never fill up under load.
+ * When a key still finds no free slot within its probe limit it is not tracked and the request has to be
+ * rejected, running it without the key would lose the protection against a double retry.
+ */
+public class IdempotencyWindow {
+    public static final String HEADER = "Idempotency-Key";
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+
+    /** The caller owns the key and must {@link #complete} or {@link #abandon} it. */
+    public static final int NEW = -1;
+    /** The key could not be tracked, the request has to be retried later. */
+    public static final int SATURATED = -2;
+    public static final int PENDING = 0;
+    public static final int COMPLETED = 1;
+    public static final int DECLINED = 2;
+    private static final int ABANDONED = 3;
+
+    private static final int MAX_PROBES = 32;
+
+    private final int capacity;
+    private final int maxFill;
+    private final long ttlNanos;
+    private final AtomicReference<Generations> generations;
+
+    public IdempotencyWindow() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_SECONDS);
+    }
+
+    public IdempotencyWindow(int capacity, long ttlSeconds) {
+        if (capacity < MAX_PROBES || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two of at least " + MAX_PROBES);
+        }
+        this.capacity = capacity;
+        this.maxFill = capacity / 2;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        Table table = new Table(capacity, System.nanoTime());
+        this.generations = new AtomicReference<>(new Generations(table, new Table(capacity, table.createdAt)));
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key with a final avalanche, never 0.
+     */
+    public static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * @return {@link #NEW} if the caller is the first one with the key, {@link #SATURATED} if it is not tracked,
+     * otherwise the outcome of the earlier request: {@link #PENDING}, {@link #COMPLETED} or {@link #DECLINED}
+     */
+    public int begin(long fingerprint) {
+        Generations current = rotateIfDue();
+        int seen = current.previous.find(fingerprint);
+        if (seen >= 0) {
+            return current.previous.claimIfAbandoned(seen);
+        }
+        int result = current.table.insertOrFind(fingerprint);
+        Generations after = generations.get();
+        if (result == NEW && after.table != current.table) {
+            // the table became the previous generation meanwhile, a caller after the rotation did not look at it
+            return after.table.insertOrFind(fingerprint);
+        }
+        return result;
+    }
+
+    public void complete(long fingerprint, boolean completed) {
+        setOutcome(fingerprint, completed ? COMPLETED : DECLINED);
+    }
+
+    /**
+     * Forgets the outcome of a request that failed before it was decided, so its retry runs again.
+     */
+    public void abandon(long fingerprint) {
+        setOutcome(fingerprint, ABANDONED);
+    }
+
+    /**
+     * A key taken during a rotation may be in both tables, the outcome goes to each of them.
+     */
+    private void setOutcome(long fingerprint, int outcome) {
+        Generations current = generations.get();
+        current.table.setOutcome(fingerprint, outcome);
+        current.previous.setOutcome(fingerprint, outcome);
+    }
+
+    private Generations rotateIfDue() {
+        for (;;) {
+            Generations current = generations.get();
+            long now = System.nanoTime();
+            if (now - current.table.createdAt < ttlNanos && current.table.filled.get() < maxFill) {
+                return current;
+            }
+            Generations next = new Generations(new Table(capacity, now), current.table);
+            if (generations.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private static final class Generations {
+        final Table table;
+        final Table previous;
+
+        Generations(Table table, Table previous) {
+            this.table = table;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Table {
+        final long createdAt;
+        final AtomicInteger filled = new AtomicInteger();
+        private final int mask;
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray outcomes;
+
+        Table(int capacity, long createdAt) {
+            this.createdAt = createdAt;
+            this.mask = capacity - 1;
+            this.keys = new AtomicLongArray(capacity);
+            this.outcomes = new AtomicIntegerArray(capacity);
+        }
+
+        /**
+         * @return slot of the key or -1
+         */
+        int find(long fingerprint) {
+            int index = (int) fingerprint & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask) {
+                long key = keys.get(index);
+                if (key == fingerprint) {
+                    return index;
+                }
+                if (key == 0) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Slots only go from empty to taken, so callers with the same key probe over the same taken slots
+         * and race for the same empty one.
+         */
+        int insertOrFind(long fingerprint) {
+            int index = (int) fingerprint & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask) {
+                long key = keys.get(index);
+                if (key == 0) {
+                    if (keys.compareAndSet(index, 0, fingerprint)) {
+                        filled.incrementAndGet();
+                        return NEW;
+                    }
+                    key = keys.get(index);
+                }
+                if (key == fingerprint) {
+                    return claimIfAbandoned(index);
+                }
+            }
+            return SATURATED;
+        }
+
+        int claimIfAbandoned(int index) {
+            for (;;) {
+                int outcome = outcomes.get(index);
+                if (outcome != ABANDONED) {
+                    return outcome;
+                }
+                if (outcomes.compareAndSet(index, ABANDONED, PENDING)) {
+                    return NEW;
+                }
+            }
+        }
+
+        void setOutcome(long fingerprint, int outcome) {
+            int index = find(fingerprint);
+            if (index >= 0) {
+                outcomes.set(index, outcome);
+            }
+        }
+    }
+}
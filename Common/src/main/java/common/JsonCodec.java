@@ -0,0 +1,386 @@
+package common;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codec of the fixed JSON shapes of the account requests and responses, working on the bytes of the Vert.x buffer.
+ * Only the values of the known fields become objects, amounts are parsed from their text into an exact BigDecimal.
+ * <p>
+ * Vert.x buffers are never released, so the constant responses are shared buffers
+ * and the others are written straight into a buffer of the final size.
+ */
+public final class JsonCodec {
+    public static final Buffer EMPTY = Buffer.buffer("{}");
+
+    private static final byte[] IBAN = bytes("iban");
+    private static final byte[] SOURCE_IBAN = bytes("sourceIban");
+    private static final byte[] TARGET_IBAN = bytes("targetIban");
+    private static final byte[] AMOUNT = bytes("amount");
+    // the bounds of a DECIMAL(20, 2) column
+    private static final int MAX_AMOUNT_PRECISION = 20;
+    private static final int MAX_AMOUNT_INTEGER_DIGITS = 18;
+    private static final int MAX_AMOUNT_SCALE = 2;
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Fields of an account request, absent fields are null.
+     */
+    public static final class AccountRequest {
+        public String iban;
+        public String sourceIban;
+        public String targetIban;
+        public BigDecimal amount;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body is not a JSON object
+     */
+    public static AccountRequest parseObject(Buffer body) {
+        Parser parser = new Parser(body);
+        AccountRequest request = parser.object();
+        parser.end();
+        return request;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body is not a JSON array of objects
+     */
+    public static List<AccountRequest> parseArray(Buffer body) {
+        Parser parser = new Parser(body);
+        List<AccountRequest> requests = new ArrayList<>();
+        parser.expect('[');
+        if (!parser.consume(']')) {
+            do {
+                requests.add(parser.object());
+            } while (parser.consume(','));
+            parser.expect(']');
+        }
+        parser.end();
+        return requests;
+    }
+
+    public static Buffer status(String iban, BigDecimal amount) {
+        String value = amount.toPlainString();
+        return Buffer.buffer(40 + iban.length() + value.length())
+                .appendString("{\"value\":{\"iban\":\"").appendString(iban)
+                .appendString("\",\"amount\":\"").appendString(value).appendString("\"}}");
+    }
+
+    /**
+     * Writes the requests of a batch back with their results as {"value":[{..., "completed":true}, ...]}.
+     */
+    public static Buffer batchResult(List<AccountRequest> requests, List<Boolean> completed) {
+        Buffer buffer = Buffer.buffer(16 + requests.size() * 96).appendString("{\"value\":[");
+        for (int i = 0; i < requests.size(); i++) {
+            AccountRequest request = requests.get(i);
+            if (i > 0) {
+                buffer.appendByte((byte) ',');
+            }
+            buffer.appendString("{\"sourceIban\":");
+            appendNullable(buffer, request.sourceIban);
+            buffer.appendString(",\"targetIban\":");
+            appendNullable(buffer, request.targetIban);
+            buffer.appendString(",\"amount\":")
+                    .appendString(request.amount != null ? request.amount.toPlainString() : "null")
+                    .appendString(",\"completed\":").appendString(completed.get(i) ? "true" : "false")
+                    .appendByte((byte) '}');
+        }
+        return buffer.appendString("]}");
+    }
+
+    /**
+     * The values come from the client, so quotes, backslashes and control characters are escaped.
+     */
+    private static void appendNullable(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendString("null");
+            return;
+        }
+        buffer.appendByte((byte) '"');
+        int plain = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            buffer.appendString(value.substring(plain, i));
+            if (c == '"' || c == '\\') {
+                buffer.appendByte((byte) '\\').appendByte((byte) c);
+            } else {
+                buffer.appendString(String.format("\\u%04x", (int) c));
+            }
+            plain = i + 1;
+        }
+        buffer.appendString(plain == 0 ? value : value.substring(plain)).appendByte((byte) '"');
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Parser {
+        private final Buffer body;
+        private final int length;
+        private int pos;
+
+        Parser(Buffer body) {
+            this.body = body;
+            this.length = body.length();
+        }
+
+        AccountRequest object() {
+            AccountRequest request = new AccountRequest();
+            expect('{');
+            if (consume('}')) {
+                return request;
+            }
+            do {
+                skipWhitespace();
+                expectByte('"');
+                int keyStart = pos;
+                skipStringBody();
+                int keyEnd = pos - 1;
+                expect(':');
+                skipWhitespace();
+                if (matches(keyStart, keyEnd, IBAN)) {
+                    request.iban = stringValue();
+                } else if (matches(keyStart, keyEnd, SOURCE_IBAN)) {
+                    request.sourceIban = stringValue();
+                } else if (matches(keyStart, keyEnd, TARGET_IBAN)) {
+                    request.targetIban = stringValue();
+                } else if (matches(keyStart, keyEnd, AMOUNT)) {
+                    request.amount = amountValue();
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+            return request;
+        }
+
+        private String stringValue() {
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            expectByte('"');
+            int start = pos;
+            boolean escaped = skipStringBody();
+            String value = body.getString(start, pos - 1);
+            return escaped ? unescape(value) : value;
+        }
+
+        /**
+         * Amounts are accepted as JSON numbers and as strings.
+         */
+        private BigDecimal amountValue() {
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            boolean quoted = pos < length && body.getByte(pos) == '"';
+            if (quoted) {
+                pos++;
+            }
+            int start = pos;
+            while (pos < length && isNumberByte(body.getByte(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("amount");
+            }
+            char[] digits = new char[pos - start];
+            for (int i = 0; i < digits.length; i++) {
+                digits[i] = (char) body.getByte(start + i);
+            }
+            if (quoted) {
+                expectByte('"');
+            }
+            BigDecimal amount;
+            try {
+                amount = new BigDecimal(digits);
+            } catch (NumberFormatException e) {
+                throw error("amount");
+            }
+            // an exponent like 1e1000000000 is parsed cheaply, but later arithmetic would expand all its digits
+            if (amount.precision() > MAX_AMOUNT_PRECISION
+                    || (long) amount.precision() - amount.scale() > MAX_AMOUNT_INTEGER_DIGITS
+                    || amount.stripTrailingZeros().scale() > MAX_AMOUNT_SCALE) {
+                throw error("amount of at most " + MAX_AMOUNT_INTEGER_DIGITS + " integer digits and "
+                        + MAX_AMOUNT_SCALE + " decimal places");
+            }
+            return amount;
+        }
+
+        private void skipValue() {
+            byte b = peek();
+            if (b == '"') {
+                pos++;
+                skipStringBody();
+            } else if (b == '{' || b == '[') {
+                int depth = 0;
+                do {
+                    b = next();
+                    if (b == '"') {
+                        skipStringBody();
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                    }
+                } while (depth > 0);
+            } else {
+                while (pos < length && body.getByte(pos) != ',' && body.getByte(pos) != '}'
+                        && body.getByte(pos) != ']') {
+                    pos++;
+                }
+            }
+        }
+
+        /**
+         * Moves past the closing quote of a string whose opening quote is consumed.
+         *
+         * @return true if the string has escape sequences
+         */
+        private boolean skipStringBody() {
+            boolean escaped = false;
+            for (;;) {
+                byte b = next();
+                if (b == '\\') {
+                    escaped = true;
+                    next();
+                } else if (b == '"') {
+                    return escaped;
+                }
+            }
+        }
+
+        private boolean matches(int start, int end, byte[] key) {
+            if (end - start != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (body.getByte(start + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean consumeLiteral(String literal) {
+            if (pos + literal.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (body.getByte(pos + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if (pos < length && body.getByte(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            expectByte(c);
+        }
+
+        void end() {
+            skipWhitespace();
+            if (pos != length) {
+                throw error("end of body");
+            }
+        }
+
+        private void expectByte(char c) {
+            if (next() != c) {
+                throw error("'" + c + "'");
+            }
+        }
+
+        private byte peek() {
+            if (pos >= length) {
+                throw error("value");
+            }
+            return body.getByte(pos);
+        }
+
+        private byte next() {
+            if (pos >= length) {
+                throw error("more input");
+            }
+            return body.getByte(pos++);
+        }
+
+        private void skipWhitespace() {
+            while (pos < length) {
+                byte b = body.getByte(pos);
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String expected) {
+            return new IllegalArgumentException("Expected " + expected + " at position " + pos + " of the JSON body");
+        }
+
+        private static boolean isNumberByte(byte b) {
+            return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+        }
+
+        private static String unescape(String value) {
+            StringBuilder unescaped = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c != '\\' || i + 1 == value.length()) {
+                    unescaped.append(c);
+                    continue;
+                }
+                char escape = value.charAt(++i);
+                switch (escape) {
+                    case 'n':
+                        unescaped.append('\n');
+                        break;
+                    case 't':
+                        unescaped.append('\t');
+                        break;
+                    case 'r':
+                        unescaped.append('\r');
+                        break;
+                    case 'b':
+                        unescaped.append('\b');
+                        break;
+                    case 'f':
+                        unescaped.append('\f');
+                        break;
+                    case 'u':
+                        if (i + 5 > value.length()) {
+                            throw new IllegalArgumentException("Wrong escape sequence in " + value);
+                        }
+                        unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default:
+                        unescaped.append(escape);
+                }
+            }
+            return unescaped.toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package common;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the REST routes and of the internal stages of an operation.
+ * Recording goes to an HdrHistogram {@link Recorder} and does not allocate, the recorded intervals are added
+ * to the cumulative histograms when the metrics are rendered in Prometheus text format.
+ */
+public class LatencyMetrics {
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Map<String, Series> routes = new ConcurrentHashMap<>();
+    private final Map<String, Series> stages = new ConcurrentHashMap<>();
+    private final String stageMetric;
+
+    /**
+     * @param stageMetric name of the Prometheus summary of the stages
+     * @param stageNames  the stages are fixed, so recording never creates a series
+     */
+    public LatencyMetrics(String stageMetric, String... stageNames) {
+        this.stageMetric = stageMetric;
+        for (String stage : stageNames) {
+            stages.put(stage, new Series());
+        }
+    }
+
+    /**
+     * Routes are registered up front, so requests to unknown paths do not create series.
+     */
+    public void registerRoute(String route) {
+        routes.putIfAbsent(route, new Series());
+    }
+
+    public void recordRoute(String route, long startNanos) {
+        record(routes.get(route), startNanos);
+    }
+
+    public void recordStage(String stage, long startNanos) {
+        record(stages.get(stage), startNanos);
+    }
+
+    private static void record(Series series, long startNanos) {
+        if (series != null) {
+            series.recorder.recordValue(Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS));
+        }
+    }
+
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        render(text, "http_request_duration_seconds", "route", routes);
+        render(text, stageMetric, "stage", stages);
+        return text.toString();
+    }
+
+    private static void render(StringBuilder text, String metric, String label, Map<String, Series> series) {
+        text.append("# TYPE ").append(metric).append(" summary\n");
+        new TreeMap<>(series).forEach((name, s) -> {
+            Histogram histogram = s.snapshot();
+            for (double quantile : QUANTILES) {
+                text.append(metric).append('{').append(label).append("=\"").append(name)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.getValueAtPercentile(quantile * 100))).append('\n');
+            }
+            text.append(metric).append("_sum{").append(label).append("=\"").append(name).append("\"} ")
+                    .append(seconds(histogram.getMean() * histogram.getTotalCount())).append('\n');
+            text.append(metric).append("_count{").append(label).append("=\"").append(name).append("\"} ")
+                    .append(histogram.getTotalCount()).append('\n');
+        });
+    }
+
+    private static double seconds(double nanos) {
+        return nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static final class Series {
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        private final Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return total.copy();
+        }
+    }
+}
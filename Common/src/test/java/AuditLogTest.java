@@ -0,0 +1,77 @@
+import common.AuditLog;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+public class AuditLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreWrittenInOrderTest() throws IOException {
+        Path root = folder.getRoot().toPath();
+        AuditLog audit = new AuditLog(root, 16, 1L << 20, 10, AuditLogTest::accountNumber);
+        audit.record(AuditLog.DEPOSIT, true, null, "BANK_00000001", 10_000);
+        audit.record(AuditLog.TRANSFER, false, "BANK_00000001", "BANK_00000002", 50_000);
+        audit.record(AuditLog.TRANSFER, true, "BANK_00000001", "OTHER_1", 3_025);
+        audit.close();
+
+        List<long[]> records = new ArrayList<>();
+        for (Path file : AuditLog.files(root)) {
+            AuditLog.read(file, (time, type, result, source, target, amount) ->
+                    records.add(new long[]{type, result, source, target, amount}));
+        }
+        Assert.assertEquals(3, records.size());
+        Assert.assertArrayEquals(new long[]{AuditLog.DEPOSIT, AuditLog.COMPLETED, -1, 1, 10_000}, records.get(0));
+        Assert.assertArrayEquals(new long[]{AuditLog.TRANSFER, AuditLog.DECLINED, 1, 2, 50_000}, records.get(1));
+        Assert.assertArrayEquals(new long[]{AuditLog.TRANSFER, AuditLog.COMPLETED, 1, -1, 3_025}, records.get(2));
+    }
+
+    @Test
+    public void oldFilesAreDeletedBeyondRetentionTest() throws IOException {
+        Path root = folder.getRoot().toPath();
+        AuditLog audit = new AuditLog(root, 1024, 100L * AuditLog.RECORD_SIZE, 3, AuditLogTest::accountNumber);
+        IntStream.range(0, 4).parallel().forEach(thread -> {
+            for (int i = 0; i < 2_500; i++) {
+                audit.record(AuditLog.DEPOSIT, true, null, "BANK_00000001", 1);
+            }
+        });
+        audit.close();
+
+        List<Path> files = AuditLog.files(root);
+        Assert.assertTrue(files.size() <= 3);
+        AtomicLong kept = new AtomicLong();
+        for (Path file : files) {
+            AuditLog.read(file, (time, type, result, source, target, amount) -> kept.incrementAndGet());
+        }
+        Assert.assertTrue(kept.get() > 0 && kept.get() < 10_000);
+    }
+
+    @Test(timeout = 10_000)
+    public void recordOnFullRingAfterCloseIsDroppedTest() throws IOException {
+        Path root = folder.getRoot().toPath();
+        AuditLog audit = new AuditLog(root, 16, 1L << 20, 10, AuditLogTest::accountNumber);
+        audit.close();
+        for (int i = 0; i < 100; i++) {
+            audit.record(AuditLog.DEPOSIT, true, null, "BANK_00000001", 1);
+        }
+
+        AtomicLong written = new AtomicLong();
+        for (Path file : AuditLog.files(root)) {
+            AuditLog.read(file, (time, type, result, source, target, amount) -> written.incrementAndGet());
+        }
+        Assert.assertEquals(0, written.get());
+    }
+
+    private static long accountNumber(String iban) {
+        return iban.startsWith("BANK_") ? Long.parseLong(iban.substring("BANK_".length())) : -1;
+    }
+}
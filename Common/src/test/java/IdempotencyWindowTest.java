@@ -0,0 +1,59 @@
+import common.IdempotencyWindow;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdempotencyWindowTest {
+    private static final long HOUR_SECONDS = 3_600;
+
+    @Test
+    public void keysAreForgottenAfterTwoFilledTablesTest() {
+        IdempotencyWindow window = new IdempotencyWindow(64, HOUR_SECONDS);
+        // fingerprints 1..32 take neighbouring slots, the 32nd fills half of the table
+        for (long key = 1; key <= 32; key++) {
+            Assert.assertEquals(IdempotencyWindow.NEW, window.begin(key));
+        }
+        window.complete(1, true);
+
+        // the next key rotates the filled table into the previous generation, which is still looked up
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(33));
+        Assert.assertEquals(IdempotencyWindow.COMPLETED, window.begin(1));
+        Assert.assertEquals(IdempotencyWindow.PENDING, window.begin(2));
+
+        for (long key = 34; key <= 64; key++) {
+            Assert.assertEquals(IdempotencyWindow.NEW, window.begin(key));
+        }
+        // the second rotation drops the first table
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(65));
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(1));
+        Assert.assertEquals(IdempotencyWindow.PENDING, window.begin(33));
+    }
+
+    @Test
+    public void abandonedKeyIsClaimedByItsRetryTest() {
+        IdempotencyWindow window = new IdempotencyWindow(64, HOUR_SECONDS);
+        long key = IdempotencyWindow.fingerprint("transfer-1");
+
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(key));
+        Assert.assertEquals(IdempotencyWindow.PENDING, window.begin(key));
+        window.abandon(key);
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(key));
+        Assert.assertEquals(IdempotencyWindow.PENDING, window.begin(key));
+        window.complete(key, false);
+        Assert.assertEquals(IdempotencyWindow.DECLINED, window.begin(key));
+    }
+
+    @Test
+    public void keyWithoutFreeSlotIsSaturatedTest() {
+        IdempotencyWindow window = new IdempotencyWindow(128, HOUR_SECONDS);
+        // a run of 32 taken slots is the whole probe limit, a quarter of the table does not rotate it
+        for (long key = 1; key <= 32; key++) {
+            Assert.assertEquals(IdempotencyWindow.NEW, window.begin(key));
+        }
+        long collidingKey = 128 + 1;
+
+        Assert.assertEquals(IdempotencyWindow.SATURATED, window.begin(collidingKey));
+        Assert.assertEquals(IdempotencyWindow.SATURATED, window.begin(collidingKey));
+        Assert.assertEquals(IdempotencyWindow.PENDING, window.begin(1));
+        Assert.assertEquals(IdempotencyWindow.NEW, window.begin(33));
+    }
+}
@@ -0,0 +1,430 @@
+package load;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simple.bank.BinaryClient;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop load generator for the REST servers of SimpleBank (port 4200) and Processing Center (port 4201, TLS),
+ * or for their binary TCP listeners (ports 4300 and 4301) to compare the two protocols under the same load.
+ * <p>
+ * Requests are scheduled at a fixed arrival rate whether or not the earlier ones were answered, and the latency
+ * of a request is measured from the time it was scheduled to be sent. A stalled server therefore shows up in the
+ * percentiles with the whole time the requests waited for it, instead of being hidden by a sender that slowed down
+ * with it (coordinated omission). The latency from the actual send time is reported next to it for comparison.
+ * <p>
+ * Settings are system properties:
+ * <pre>
+ * load.target      simplebank or processing (simplebank)
+ * load.protocol    rest or binary (rest)
+ * load.host        server host (localhost)
+ * load.port        server port (4200 for simplebank, 4201 for processing; 4300 and 4301 for binary)
+ * load.restPort    REST port the accounts are opened through with the binary protocol (4200)
+ * load.rate        requests per second (1000)
+ * load.duration    measured seconds (60)
+ * load.warmup      seconds before the measurement starts (10)
+ * load.mix         operation weights (deposit=20,transfer=60,status=20; no open and status for processing)
+ * load.accounts    number of accounts (1000)
+ * load.zipf        exponent of the account popularity distribution, 0 for uniform (0.99)
+ * load.iban        IBAN format of the account numbers (BANK_%08d for simplebank, BANK01_%08d for processing)
+ * load.open        open the accounts before the run, SimpleBank only (true for simplebank)
+ * load.balance     initial deposit to every account (1000.00)
+ * load.connections HTTP connections, or binary connections the requests are pipelined over (64)
+ * load.seed        random seed (42)
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final long TICK_MILLIS = 1;
+    private static final long DRAIN_TIMEOUT_MILLIS = 30_000;
+
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final List<BinaryClient> binaryClients;
+    private final String host;
+    private final int port;
+    private final long rate;
+    private final long warmupNanos;
+    private final long totalRequests;
+    private final Operation[] mix;
+    private final ZipfDistribution accounts;
+    private final String ibanFormat;
+    private final Random random;
+    private final Map<Operation, Histogram> corrected = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> uncorrected = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+    private final Map<Long, Pending> inFlight = new HashMap<>();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private Context context;
+    private long startNanos;
+    private long scheduled;
+    private long timedOut;
+
+    /**
+     * @param binaryClients connections of the binary protocol, null to send the requests over {@code client}
+     */
+    LoadGenerator(Vertx vertx, HttpClient client, List<BinaryClient> binaryClients, String host, int port, long rate,
+                  long warmupSeconds, long durationSeconds, Operation[] mix, ZipfDistribution accounts,
+                  String ibanFormat, long seed) {
+        this.vertx = vertx;
+        this.client = client;
+        this.binaryClients = binaryClients;
+        this.host = host;
+        this.port = port;
+        this.rate = rate;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.totalRequests = rate * (warmupSeconds + durationSeconds);
+        this.mix = mix;
+        this.accounts = accounts;
+        this.ibanFormat = ibanFormat;
+        this.random = new Random(seed);
+        for (Operation operation : Operation.values()) {
+            corrected.put(operation, new Histogram(HIGHEST_TRACKABLE_NANOS, 3));
+            uncorrected.put(operation, new Histogram(HIGHEST_TRACKABLE_NANOS, 3));
+            errors.put(operation, 0L);
+        }
+    }
+
+    /**
+     * Opens the accounts one request per account, all in flight at once within the connection pool.
+     */
+    static CompletableFuture<Void> openAccounts(HttpClient client, String host, int port, int qty) {
+        List<CompletableFuture<Void>> opened = new ArrayList<>(qty);
+        for (int i = 0; i < qty; i++) {
+            opened.add(call(client, host, port, Operation.OPEN, null));
+        }
+        return CompletableFuture.allOf(opened.toArray(new CompletableFuture<?>[0]));
+    }
+
+    static CompletableFuture<Void> fundAccounts(HttpClient client, String host, int port, int qty,
+                                                String ibanFormat, double balance) {
+        List<CompletableFuture<Void>> funded = new ArrayList<>(qty);
+        for (int i = 1; i <= qty; i++) {
+            JsonObject body = new JsonObject().put("iban", String.format(ibanFormat, i)).put("amount", balance);
+            funded.add(call(client, host, port, Operation.DEPOSIT, body.encode()));
+        }
+        return CompletableFuture.allOf(funded.toArray(new CompletableFuture<?>[0]));
+    }
+
+    static CompletableFuture<Void> fundAccounts(List<BinaryClient> clients, int qty, String ibanFormat,
+                                                double balance) {
+        List<CompletableFuture<Boolean>> funded = new ArrayList<>(qty);
+        for (int i = 1; i <= qty; i++) {
+            funded.add(clients.get(i % clients.size()).deposit(String.format(ibanFormat, i), BigDecimal.valueOf(balance)));
+        }
+        return CompletableFuture.allOf(funded.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static CompletableFuture<Void> call(HttpClient client, String host, int port, Operation operation, String body) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        HttpClientRequest request = client.request(operation.method, port, host, operation.path, response -> {
+            if (response.statusCode() >= 400) {
+                done.completeExceptionally(new IllegalStateException(
+                        operation.path + " answered " + response.statusCode()));
+            } else {
+                response.bodyHandler(b -> done.complete(null));
+            }
+        });
+        request.exceptionHandler(done::completeExceptionally);
+        if (body != null) {
+            request.putHeader("Content-Type", "application/json").end(body);
+        } else {
+            request.end();
+        }
+        return done;
+    }
+
+    /**
+     * @return future completed when every scheduled request is answered or the drain timeout passed,
+     * then the requests still in flight are recorded as errors
+     */
+    CompletableFuture<Void> run() {
+        vertx.runOnContext(v -> {
+            context = vertx.getOrCreateContext();
+            startNanos = System.nanoTime();
+            vertx.setPeriodic(TICK_MILLIS, this::tick);
+        });
+        return finished;
+    }
+
+    private void tick(long timerId) {
+        long now = System.nanoTime();
+        long due = Math.min(totalRequests, (now - startNanos) * rate / TimeUnit.SECONDS.toNanos(1) + 1);
+        while (scheduled < due) {
+            send(startNanos + scheduled * TimeUnit.SECONDS.toNanos(1) / rate);
+            scheduled++;
+        }
+        if (scheduled >= totalRequests) {
+            vertx.cancelTimer(timerId);
+            vertx.setTimer(DRAIN_TIMEOUT_MILLIS, t -> timeOut());
+            completeIfDrained();
+        }
+    }
+
+    private void send(long intendedNanos) {
+        Operation operation = mix[random.nextInt(mix.length)];
+        int source = accounts.sample(random);
+        int target = source;
+        if (operation == Operation.TRANSFER) {
+            while (target == source) {
+                target = accounts.sample(random);
+            }
+        }
+        long cents = random.nextInt(10_000) + 1;
+        long id = scheduled;
+        Pending pending = new Pending(operation, intendedNanos, System.nanoTime(),
+                intendedNanos - startNanos >= warmupNanos);
+        inFlight.put(id, pending);
+        request(operation, source, target, cents).whenComplete((v, e) -> {
+            long now = System.nanoTime();
+            if (binaryClients != null) {
+                context.runOnContext(c -> completed(id, now, e));
+            } else {
+                completed(id, now, e);
+            }
+        });
+    }
+
+    private CompletableFuture<?> request(Operation operation, int source, int target, long cents) {
+        if (binaryClients == null) {
+            JsonObject body = body(operation, source, target, cents / 100.0);
+            return call(client, host, port, operation, body != null ? body.encode() : null);
+        }
+        // requests are spread over the connections, each of them pipelines its share
+        BinaryClient binary = binaryClients.get((int) (scheduled % binaryClients.size()));
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        switch (operation) {
+            case DEPOSIT:
+                return binary.deposit(iban(target), amount);
+            case TRANSFER:
+                return binary.transfer(iban(source), iban(target), amount);
+            case STATUS:
+                return binary.status(iban(target));
+            default:
+                throw new IllegalArgumentException("Binary protocol does not serve " + operation.path);
+        }
+    }
+
+    /**
+     * Runs on the context of the generator, its histograms and counters are not shared between threads.
+     * A response to a request that already timed out is ignored, it was recorded as an error.
+     */
+    private void completed(long id, long now, Throwable e) {
+        Pending pending = inFlight.remove(id);
+        if (pending != null) {
+            record(pending, now, e != null);
+            completeIfDrained();
+        }
+    }
+
+    /**
+     * Records the requests not answered within the drain timeout as errors, with the latency they waited so far,
+     * so a server that stopped answering is not reported with the percentiles of the requests it did answer.
+     */
+    private void timeOut() {
+        long now = System.nanoTime();
+        timedOut = inFlight.size();
+        for (Pending pending : inFlight.values()) {
+            record(pending, now, true);
+        }
+        inFlight.clear();
+        finished.complete(null);
+    }
+
+    private void record(Pending pending, long now, boolean failed) {
+        if (pending.measured) {
+            Operation operation = pending.operation;
+            corrected.get(operation).recordValue(Math.min(now - pending.intendedNanos, HIGHEST_TRACKABLE_NANOS));
+            uncorrected.get(operation).recordValue(Math.min(now - pending.sentNanos, HIGHEST_TRACKABLE_NANOS));
+            if (failed) {
+                errors.merge(operation, 1L, Long::sum);
+            }
+        }
+    }
+
+    private void completeIfDrained() {
+        if (scheduled >= totalRequests && inFlight.isEmpty()) {
+            finished.complete(null);
+        }
+    }
+
+    private JsonObject body(Operation operation, int source, int target, double amount) {
+        switch (operation) {
+            case DEPOSIT:
+                return new JsonObject().put("iban", iban(target)).put("amount", amount);
+            case TRANSFER:
+                return new JsonObject()
+                        .put("sourceIban", iban(source))
+                        .put("targetIban", iban(target))
+                        .put("amount", amount);
+            case STATUS:
+                return new JsonObject().put("iban", iban(target));
+            default:
+                return null;
+        }
+    }
+
+    private String iban(int number) {
+        return String.format(ibanFormat, number);
+    }
+
+    void report(long durationSeconds) {
+        Histogram totalCorrected = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        Histogram totalUncorrected = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        long totalErrors = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = corrected.get(operation);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            totalCorrected.add(histogram);
+            totalUncorrected.add(uncorrected.get(operation));
+            totalErrors += errors.get(operation);
+            report(operation.name(), histogram, uncorrected.get(operation), errors.get(operation), durationSeconds);
+        }
+        report("ALL", totalCorrected, totalUncorrected, totalErrors, durationSeconds);
+        if (timedOut > 0) {
+            logger.warn("[{}] requests were not answered within the drain timeout, they are counted as errors!",
+                    timedOut);
+        }
+    }
+
+    private static void report(String name, Histogram corrected, Histogram uncorrected, long errors,
+                               long durationSeconds) {
+        logger.info("{}: {} requests ({} req/s), {} errors", name, corrected.getTotalCount(),
+                corrected.getTotalCount() / durationSeconds, errors);
+        logger.info("{}: corrected   p50={} p90={} p99={} p99.9={} max={} ms", name,
+                millis(corrected, 50), millis(corrected, 90), millis(corrected, 99), millis(corrected, 99.9),
+                millis(corrected, 100));
+        logger.info("{}: uncorrected p50={} p90={} p99={} p99.9={} max={} ms", name,
+                millis(uncorrected, 50), millis(uncorrected, 90), millis(uncorrected, 99), millis(uncorrected, 99.9),
+                millis(uncorrected, 100));
+    }
+
+    private static String millis(Histogram histogram, double percentile) {
+        return String.format("%.3f", histogram.getValueAtPercentile(percentile) / 1e6);
+    }
+
+    /**
+     * Parses weights like {@code deposit=20,transfer=60,status=20} into a table of 100 slots to draw from.
+     */
+    static Operation[] parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix has no weight: " + mix);
+        }
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            long slots = Math.round(100.0 * weight.getValue() / total);
+            for (int i = 0; i < slots; i++) {
+                table.add(weight.getKey());
+            }
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    public static void main(String[] args) {
+        boolean processing = "processing".equals(System.getProperty("load.target", "simplebank"));
+        boolean binary = "binary".equals(System.getProperty("load.protocol", "rest"));
+        String host = System.getProperty("load.host", "localhost");
+        int restPort = Integer.getInteger(binary ? "load.restPort" : "load.port", processing ? 4201 : 4200);
+        int port = binary ? Integer.getInteger("load.port", processing ? 4301 : 4300) : restPort;
+        long rate = Long.getLong("load.rate", 1_000);
+        long duration = Long.getLong("load.duration", 60);
+        long warmup = Long.getLong("load.warmup", 10);
+        Operation[] mix = parseMix(System.getProperty("load.mix",
+                processing ? "deposit=25,transfer=75" : "deposit=20,transfer=60,status=20"));
+        int accountsQty = Integer.getInteger("load.accounts", 1_000);
+        double zipf = Double.parseDouble(System.getProperty("load.zipf", "0.99"));
+        String ibanFormat = System.getProperty("load.iban", processing ? "BANK01_%08d" : "BANK_%08d");
+        boolean open = Boolean.parseBoolean(System.getProperty("load.open", String.valueOf(!processing)));
+        double balance = Double.parseDouble(System.getProperty("load.balance", "1000.00"));
+        int connections = Integer.getInteger("load.connections", 64);
+        long seed = Long.getLong("load.seed", 42);
+
+        for (Operation operation : mix) {
+            if (operation == Operation.OPEN || processing && !binary && operation == Operation.STATUS) {
+                throw new IllegalArgumentException("Load mix can not have " + operation.path);
+            }
+            if (operation == Operation.TRANSFER && accountsQty < 2) {
+                throw new IllegalArgumentException("Load mix with transfers needs at least 2 accounts");
+            }
+        }
+
+        Vertx vertx = Vertx.vertx();
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                .setSsl(processing)
+                .setTrustAll(processing)
+                .setVerifyHost(false)
+                .setKeepAlive(true)
+                .setMaxPoolSize(connections));
+        List<BinaryClient> binaryClients = null;
+        try {
+            if (open) {
+                logger.info("Opening [{}] accounts...", accountsQty);
+                openAccounts(client, host, restPort, accountsQty).join();
+            }
+            logger.info("Depositing [{}] to [{}] accounts...", balance, accountsQty);
+            if (binary) {
+                binaryClients = new ArrayList<>(connections);
+                for (int i = 0; i < connections; i++) {
+                    binaryClients.add(BinaryClient.connect(vertx, host, port).join());
+                }
+                fundAccounts(binaryClients, accountsQty, ibanFormat, balance).join();
+            } else {
+                fundAccounts(client, host, port, accountsQty, ibanFormat, balance).join();
+            }
+
+            logger.info("Running [{}] req/s over [{}] for [{}] s of warmup and [{}] s of measurement...",
+                    rate, binary ? "binary" : "REST", warmup, duration);
+            LoadGenerator generator = new LoadGenerator(vertx, client, binaryClients, host, port, rate, warmup,
+                    duration, mix, new ZipfDistribution(accountsQty, zipf), ibanFormat, seed);
+            generator.run().join();
+            generator.report(duration);
+        } finally {
+            if (binaryClients != null) {
+                binaryClients.forEach(BinaryClient::close);
+            }
+            vertx.close();
+        }
+    }
+
+    private static final class Pending {
+        private final Operation operation;
+        private final long intendedNanos;
+        private final long sentNanos;
+        private final boolean measured;
+
+        Pending(Operation operation, long intendedNanos, long sentNanos, boolean measured) {
+            this.operation = operation;
+            this.intendedNanos = intendedNanos;
+            this.sentNanos = sentNanos;
+            this.measured = measured;
+        }
+    }
+}
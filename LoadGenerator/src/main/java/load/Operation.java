@@ -0,0 +1,21 @@
+package load;
+
+import io.vertx.core.http.HttpMethod;
+
+/**
+ * Requests of the load mix. The status and open account requests are only served by SimpleBank.
+ */
+enum Operation {
+    OPEN(HttpMethod.PUT, "/account/open"),
+    DEPOSIT(HttpMethod.POST, "/account/deposit"),
+    TRANSFER(HttpMethod.POST, "/account/transfer"),
+    STATUS(HttpMethod.POST, "/account/status");
+
+    final HttpMethod method;
+    final String path;
+
+    Operation(HttpMethod method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+}
@@ -0,0 +1,36 @@
+import load.ZipfDistribution;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ZipfDistributionTest {
+    @Test
+    public void ranksAreSkewedTowardsTheFirstTest() {
+        ZipfDistribution zipf = new ZipfDistribution(1_000, 0.99);
+        Random random = new Random(1);
+        int[] hits = new int[1_001];
+        for (int i = 0; i < 100_000; i++) {
+            int rank = zipf.sample(random);
+            Assert.assertTrue(rank >= 1 && rank <= 1_000);
+            hits[rank]++;
+        }
+        Assert.assertTrue(hits[1] > hits[2]);
+        Assert.assertTrue(hits[2] > hits[100]);
+        // rank 1 of 1000 with exponent 0.99 gets about 13% of the draws
+        Assert.assertEquals(0.13, hits[1] / 100_000.0, 0.02);
+    }
+
+    @Test
+    public void zeroExponentIsUniformTest() {
+        ZipfDistribution uniform = new ZipfDistribution(4, 0);
+        Random random = new Random(1);
+        int[] hits = new int[5];
+        for (int i = 0; i < 40_000; i++) {
+            hits[uniform.sample(random)]++;
+        }
+        for (int rank = 1; rank <= 4; rank++) {
+            Assert.assertEquals(10_000, hits[rank], 500);
+        }
+    }
+}
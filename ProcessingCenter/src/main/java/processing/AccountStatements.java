@@ -0,0 +1,24 @@
+package processing;
+
+/**
+ * Parameterized SQL of the account operations.
+ * The texts are constant, so H2 finds the parsed statement in the session query cache
+ * of the pooled connection instead of parsing and planning it again.
+ */
+final class AccountStatements {
+    static final String NEXT_NUMBER_BLOCK = "SELECT NEXT VALUE FOR ACCOUNT_NUMBER_BLOCK_SEQ";
+    static final String RESTART_NUMBER_BLOCKS = "ALTER SEQUENCE ACCOUNT_NUMBER_BLOCK_SEQ RESTART WITH 1";
+    static final String INSERT = "INSERT INTO ACCOUNT (IBAN, VALUE, LAST_UPDATE_DATETIME) VALUES (?, ?, ?)";
+    static final String INSERT_IF_ABSENT = "INSERT INTO ACCOUNT (IBAN, VALUE, LAST_UPDATE_DATETIME) "
+            + "SELECT ?, 0, ? FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM ACCOUNT WHERE IBAN = ?)";
+    static final String TRUNCATE = "TRUNCATE TABLE ACCOUNT";
+    static final String WITHDRAW = "UPDATE ACCOUNT SET VALUE = VALUE - ? WHERE IBAN = ? AND VALUE >= ?";
+    static final String DEPOSIT = "UPDATE ACCOUNT SET VALUE = VALUE + ? WHERE IBAN = ?";
+    /** Both legs of a transfer in one batch: a debit with the balance check, a credit with it switched off. */
+    static final String MOVE = "UPDATE ACCOUNT SET VALUE = VALUE + ? WHERE IBAN = ? AND (? OR VALUE >= ?)";
+    static final String STATUS = "SELECT IBAN, VALUE FROM ACCOUNT WHERE IBAN = ?";
+    static final String LIST_AFTER = "SELECT IBAN, VALUE FROM ACCOUNT WHERE IBAN > ? ORDER BY IBAN LIMIT ?";
+
+    private AccountStatements() {
+    }
+}
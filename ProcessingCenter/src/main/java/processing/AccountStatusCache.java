@@ -0,0 +1,125 @@
+package processing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of account status responses with segmented LRU eviction.
+ * A new entry goes to the probation segment and is promoted to the protected segment on its second hit,
+ * so a scan over many cold accounts evicts only probation entries and leaves the hot set in place.
+ * <p>
+ * The keys are spread over stripes with their own lock. A status read from the database is only cached
+ * if no write of the same stripe was invalidated since the read started, so a slow reader can not put back
+ * a stale status, while writes to other stripes do not keep it from caching.
+ */
+class AccountStatusCache {
+    static final int DEFAULT_CAPACITY = 10_000;
+    private static final int STRIPES = 16;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    AccountStatusCache(int capacity) {
+        int stripeCapacity = Math.max(2, capacity / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    String get(String iban) {
+        return stripe(iban).get(iban);
+    }
+
+    /**
+     * @return stamp to pass to {@link #put} for a status of this IBAN read from the database after this call
+     */
+    long stamp(String iban) {
+        return stripe(iban).invalidations;
+    }
+
+    void put(String iban, String status, long stamp) {
+        stripe(iban).put(iban, status, stamp);
+    }
+
+    void invalidate(String iban) {
+        stripe(iban).remove(iban);
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    private Stripe stripe(String iban) {
+        int h = iban.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private final class Stripe {
+        private final int probationCapacity;
+        private final int protectedCapacity;
+        private final LinkedHashMap<String, String> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, String> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile long invalidations;
+
+        Stripe(int capacity) {
+            this.protectedCapacity = Math.max(1, capacity * PROTECTED_PERCENT / 100);
+            this.probationCapacity = Math.max(1, capacity - protectedCapacity);
+        }
+
+        synchronized String get(String iban) {
+            String status = protectedSegment.get(iban);
+            if (status != null) {
+                return status;
+            }
+            status = probation.remove(iban);
+            if (status != null) {
+                protectedSegment.put(iban, status);
+                if (protectedSegment.size() > protectedCapacity) {
+                    Map.Entry<String, String> demoted = removeEldest(protectedSegment);
+                    addToProbation(demoted.getKey(), demoted.getValue());
+                }
+            }
+            return status;
+        }
+
+        synchronized void put(String iban, String status, long stamp) {
+            if (invalidations != stamp) {
+                return;
+            }
+            if (protectedSegment.containsKey(iban)) {
+                protectedSegment.put(iban, status);
+            } else {
+                addToProbation(iban, status);
+            }
+        }
+
+        synchronized void remove(String iban) {
+            invalidations++;
+            probation.remove(iban);
+            protectedSegment.remove(iban);
+        }
+
+        synchronized void clear() {
+            invalidations++;
+            probation.clear();
+            protectedSegment.clear();
+        }
+
+        private void addToProbation(String iban, String status) {
+            probation.put(iban, status);
+            if (probation.size() > probationCapacity) {
+                removeEldest(probation);
+            }
+        }
+
+        private Map.Entry<String, String> removeEldest(LinkedHashMap<String, String> segment) {
+            Iterator<Map.Entry<String, String>> eldest = segment.entrySet().iterator();
+            Map.Entry<String, String> entry = eldest.next();
+            eldest.remove();
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package processing;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the account listing of one bank as a chunked JSON response, one page of accounts at a time.
+ * The pages are read by keyset from the database on the {@link BlockingWorkers} and written on the event loop.
+ * While the response write queue is full no page is read, the stream continues from the drain handler.
+ * If the workers do not admit the first page the request is answered with 503 and a Retry-After hint;
+ * a later page, after the 200 status is sent, is tried again after a pause.
+ */
+final class AccountsStream {
+    private static final Logger logger = LoggerFactory.getLogger(AccountsStream.class);
+    static final int PAGE_SIZE = 1_000;
+    private static final long RETRY_MILLIS = 100;
+
+    private final Processing processing;
+    private final Vertx vertx;
+    private final BlockingWorkers workers;
+    private final HttpServerResponse response;
+    private final String bankCode;
+    private final long limit;
+    private Context context;
+    private String cursor;
+    private long written;
+    private boolean closed;
+
+    AccountsStream(Processing processing, Vertx vertx, BlockingWorkers workers, HttpServerResponse response,
+                   String bankCode, String afterIban, long limit) {
+        this.processing = processing;
+        this.vertx = vertx;
+        this.workers = workers;
+        this.response = response;
+        this.bankCode = bankCode;
+        this.cursor = afterIban;
+        this.limit = limit;
+    }
+
+    /**
+     * Must be called on the event loop of the request, the pages are written on its context.
+     */
+    void start() {
+        context = vertx.getOrCreateContext();
+        response.closeHandler(v -> closed = true);
+        readNextPage();
+    }
+
+    private void readNextPage() {
+        if (closed) {
+            return;
+        }
+        int pageSize = (int) Math.min(PAGE_SIZE, limit - written);
+        long offset = written;
+        String after = cursor;
+        boolean admitted = workers.execute(() -> {
+            Page page = new Page();
+            try {
+                page.last = processing.forEachAccount(bankCode, after, pageSize, (iban, amount) -> {
+                    if (offset + page.count++ > 0) {
+                        page.chunk.appendString(",");
+                    }
+                    page.chunk.appendString("{\"iban\":\"").appendString(iban)
+                            .appendString("\",\"amount\":\"").appendString(amount.toString()).appendString("\"}");
+                });
+            } catch (RuntimeException e) {
+                context.runOnContext(v -> fail(e));
+                return;
+            }
+            context.runOnContext(v -> writePage(page));
+        });
+        if (admitted) {
+            return;
+        }
+        if (response.headWritten()) {
+            logger.warn("Worker queue is full! Listing accounts of Bank [{}] after [{}] will retried!", bankCode, cursor);
+            vertx.setTimer(RETRY_MILLIS, t -> readNextPage());
+        } else {
+            logger.warn("Worker queue is full! Listing accounts of Bank [{}] is rejected!", bankCode);
+            response.setStatusCode(503) // 503 Service Unavailable
+                    .putHeader("Retry-After", "1")
+                    .end();
+        }
+    }
+
+    private void fail(RuntimeException e) {
+        logger.error("Listing accounts of Bank [{}] after [{}] is failed: {}", bankCode, cursor, e.getMessage());
+        if (response.headWritten()) {
+            // an error in the middle of a 200 response, the client must not take it for the whole listing
+            response.reset();
+        } else {
+            response.setStatusCode(500).end();
+        }
+    }
+
+    private void writePage(Page page) {
+        if (closed) {
+            return;
+        }
+        if (!response.headWritten()) {
+            response.setChunked(true)
+                    .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                    .write("{\"value\":[");
+        }
+        response.write(page.chunk);
+        written += page.count;
+        if (page.last == null || written >= limit) {
+            finish(page.last);
+            return;
+        }
+        cursor = page.last;
+        if (response.writeQueueFull()) {
+            response.drainHandler(v -> {
+                response.drainHandler(null);
+                readNextPage();
+            });
+        } else {
+            readNextPage();
+        }
+    }
+
+    private void finish(String last) {
+        StringBuilder tail = new StringBuilder("], \"@odata.count\":").append(written);
+        if (last != null) {
+            tail.append(", \"@odata.nextLink\":\"/account/getAll?bank=").append(bankCode)
+                    .append("&after=").append(last)
+                    .append("&limit=").append(limit).append('"');
+        }
+        response.end(tail.append('}').toString());
+    }
+
+    private static final class Page {
+        private final Buffer chunk = Buffer.buffer();
+        private int count;
+        private String last;
+    }
+}
@@ -2,12 +2,40 @@ package processing;
 
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface Bank {
     String createAccount();
     boolean withdraw(String account, BigDecimal value);
-    void deposit(String account, BigDecimal value) throws SQLException;
+
+    /**
+     * @return true if the account exists
+     */
+    boolean deposit(String account, BigDecimal value) throws SQLException;
+    DatabaseManager.TransferResult transfer(String sourceIban, String targetIban, BigDecimal value) throws SQLException;
+
+    /**
+     * @return IBAN of the account which clears the transfers with the other bank, opened on first use
+     */
+    String clearingAccount(String counterpartyCode) throws SQLException;
+
+    /**
+     * @return balance of the clearing account with the other bank, the net amount this bank owes it,
+     * null if the account was never opened
+     */
+    BigDecimal clearingBalance(String counterpartyCode) throws SQLException;
+    boolean transferFromClearing(String clearingIban, String targetIban, BigDecimal value) throws SQLException;
+    boolean[] withdrawBatch(List<Transfer> transfers) throws SQLException;
+    boolean[] depositBatch(List<Transfer> transfers) throws SQLException;
     String getAccountStatus(String iban);
-    String getAllAccounts();
+
+    /**
+     * Visits up to {@code limit} accounts after {@code afterIban} (null to start from the first one) in IBAN order.
+     *
+     * @return IBAN of the last visited account if the limit was reached, null if there are no more accounts
+     */
+    String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) throws SQLException;
     void deleteAllAccounts() throws SQLException;
+    void close();
 }
\ No newline at end of file
@@ -1,50 +1,202 @@
 package processing;
 
+import common.LatencyMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class BankImpl implements Bank {
     private static final Logger logger = LoggerFactory.getLogger(BankImpl.class);
+    private static final String CLEARING_ACCOUNT_FORMAT = "%s_CLEARING_%s";
 
     private final DatabaseManager db;
     private final String code;
+    private final TransactionManager tm;
+    private final AccountStatusCache statusCache = new AccountStatusCache(AccountStatusCache.DEFAULT_CAPACITY);
+    private final Map<String, String> clearingAccounts = new ConcurrentHashMap<>();
 
-    BankImpl(String code) {
+    BankImpl(String code, TransactionManager tm, LatencyMetrics metrics) {
         this.code = code;
-        this.db = new H2XaDatabaseManager(code);
+        this.tm = tm;
+        this.db = createDatabase(code, tm, metrics);
+    }
+
+    /**
+     * The backend of the bank is chosen by {@code -Dprocessing.db.<code>}, otherwise by {@code -Dprocessing.db}:
+     * {@code sql} for H2 over XA JDBC (the default), {@code mvstore} for the key-value store without SQL access.
+     */
+    private static DatabaseManager createDatabase(String code, TransactionManager tm, LatencyMetrics metrics) {
+        String backend = System.getProperty("processing.db." + code, System.getProperty("processing.db", "sql"));
+        if ("mvstore".equals(backend)) {
+            logger.info("Bank [{}] keeps its accounts in MVStore!", code);
+            return new MvStoreDatabaseManager(code, tm, metrics);
+        }
+        return new H2XaDatabaseManager(code, metrics);
     }
 
     @Override
     public String createAccount() {
         String generatedIban = db.createAccount(code);
+        // a status of the number may be cached as empty before it was handed out
+        statusCache.invalidate(generatedIban);
         return String.format("{\"value\":{\"iban\":\"%s\"}}", generatedIban);
     }
 
     @Override
     public boolean withdraw(String account, BigDecimal value) {
-        return db.withdraw(account, value);
+        boolean withdrawn = db.withdraw(account, value);
+        if (withdrawn) {
+            invalidateOnCommit(Collections.singletonList(account));
+        }
+        return withdrawn;
+    }
+
+    @Override
+    public boolean deposit(String account, BigDecimal value) throws SQLException {
+        boolean deposited = db.deposit(account, value);
+        invalidateOnCommit(Collections.singletonList(account));
+        return deposited;
+    }
+
+    @Override
+    public DatabaseManager.TransferResult transfer(String sourceIban, String targetIban, BigDecimal value)
+            throws SQLException {
+        DatabaseManager.TransferResult result = db.transfer(sourceIban, targetIban, value);
+        if (result == DatabaseManager.TransferResult.COMPLETED) {
+            statusCache.invalidate(sourceIban);
+            statusCache.invalidate(targetIban);
+        }
+        return result;
+    }
+
+    @Override
+    public String clearingAccount(String counterpartyCode) throws SQLException {
+        String iban = clearingAccounts.get(counterpartyCode);
+        if (iban == null) {
+            iban = String.format(CLEARING_ACCOUNT_FORMAT, code, counterpartyCode);
+            db.openAccountIfAbsent(iban);
+            clearingAccounts.put(counterpartyCode, iban);
+        }
+        return iban;
+    }
+
+    @Override
+    public BigDecimal clearingBalance(String counterpartyCode) throws SQLException {
+        return db.balance(String.format(CLEARING_ACCOUNT_FORMAT, code, counterpartyCode));
+    }
+
+    @Override
+    public boolean transferFromClearing(String clearingIban, String targetIban, BigDecimal value) throws SQLException {
+        boolean transferred = db.transferFromClearing(clearingIban, targetIban, value);
+        if (transferred) {
+            statusCache.invalidate(clearingIban);
+            statusCache.invalidate(targetIban);
+        }
+        return transferred;
+    }
+
+    @Override
+    public boolean[] withdrawBatch(List<Transfer> transfers) throws SQLException {
+        boolean[] withdrawn = db.withdrawBatch(transfers);
+        List<String> ibans = new ArrayList<>(transfers.size());
+        for (int i = 0; i < withdrawn.length; i++) {
+            if (withdrawn[i]) {
+                ibans.add(transfers.get(i).getSourceIban());
+            }
+        }
+        invalidateOnCommit(ibans);
+        return withdrawn;
     }
 
     @Override
-    public void deposit(String account, BigDecimal value) throws SQLException {
-        db.deposit(account, value);
+    public boolean[] depositBatch(List<Transfer> transfers) throws SQLException {
+        boolean[] deposited = db.depositBatch(transfers);
+        List<String> ibans = new ArrayList<>(transfers.size());
+        for (int i = 0; i < deposited.length; i++) {
+            if (deposited[i]) {
+                ibans.add(transfers.get(i).getTargetIban());
+            }
+        }
+        invalidateOnCommit(ibans);
+        return deposited;
     }
 
+    /**
+     * Reads the status through the cache. The stamp is taken before the SELECT,
+     * so a status read before a concurrent commit is not cached after its invalidation.
+     */
     @Override
     public String getAccountStatus(String iban) {
-        return db.status(iban);
+        String status = statusCache.get(iban);
+        if (status == null) {
+            long stamp = statusCache.stamp(iban);
+            status = db.status(iban);
+            if (!"{}".equals(status)) {
+                statusCache.put(iban, status, stamp);
+            }
+        }
+        return status;
     }
 
     @Override
-    public String getAllAccounts() {
-        return null;
+    public String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) throws SQLException {
+        return db.forEachAccount(afterIban, limit, action);
     }
 
     @Override
     public void deleteAllAccounts() throws SQLException {
         db.clear();
+        clearingAccounts.clear();
+        statusCache.clear();
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    /**
+     * Inside a JTA transaction the updated statuses stay cached until it is committed,
+     * readers can not see the uncommitted values anyway. Outside of it the update is already committed.
+     */
+    private void invalidateOnCommit(List<String> ibans) {
+        if (ibans.isEmpty()) {
+            return;
+        }
+        try {
+            Transaction tx = tm.getTransaction();
+            if (tx != null && tx.getStatus() == Status.STATUS_ACTIVE) {
+                tx.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            ibans.forEach(statusCache::invalidate);
+                        }
+                    }
+                });
+                return;
+            }
+        } catch (SystemException | RollbackException e) {
+            logger.error(e.getMessage(), e);
+        }
+        ibans.forEach(statusCache::invalidate);
     }
 }
@@ -0,0 +1,127 @@
+package processing;
+
+import common.BinaryProtocol;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+
+/**
+ * TCP listener of the {@link BinaryProtocol} for internal clients, without the TLS of the REST server.
+ * Requests of one connection are pipelined: each one runs on a worker as it arrives and is answered when done.
+ * A deposit or transfer answers OK if it is done and DECLINED if the processing did not do it
+ * (not enough money, unknown account), REJECTED if it was not run or failed with an exception.
+ */
+class BinaryServer {
+    static final int DEFAULT_PORT = 4301;
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryServer.class);
+    private static final int AMOUNT_SCALE = 2;
+
+    private final Processing processing;
+    private final Vertx vertx;
+    private final BlockingWorkers workers;
+    private final int port;
+
+    BinaryServer(Processing processing, int port) {
+        this.processing = processing;
+        this.port = port;
+        this.vertx = Vertx.vertx();
+        this.workers = new BlockingWorkers(vertx, "processing-binary-worker",
+                BlockingWorkers.DEFAULT_POOL_SIZE, BlockingWorkers.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    void start() {
+        logger.info("Binary Server is starting...");
+        NetServerOptions options = new NetServerOptions()
+                .setTcpNoDelay(true);
+        vertx.createNetServer(options)
+                .connectHandler(this::connect)
+                .listen(port);
+        logger.info("Binary Server is ready on port [{}]!", port);
+    }
+
+    void stop() {
+        workers.close();
+        vertx.close();
+    }
+
+    private void connect(NetSocket socket) {
+        Context context = vertx.getOrCreateContext();
+        socket.exceptionHandler(e -> logger.error("Connection [{}] is failed: {}", socket.remoteAddress(), e.getMessage()));
+        socket.handler(BinaryProtocol.frameParser(BinaryProtocol.REQUEST_SIZE,
+                request -> handle(request, socket, context),
+                () -> {
+                    logger.error("Wrong frame from [{}]! Connection will closed!", socket.remoteAddress());
+                    socket.close();
+                }));
+    }
+
+    private void handle(Buffer request, NetSocket socket, Context context) {
+        long correlationId = BinaryProtocol.correlationId(request);
+        byte operation = BinaryProtocol.operation(request);
+        if (operation != BinaryProtocol.DEPOSIT && operation != BinaryProtocol.TRANSFER
+                && operation != BinaryProtocol.STATUS) {
+            respond(socket, correlationId, BinaryProtocol.UNSUPPORTED, 0);
+            return;
+        }
+        boolean admitted = workers.execute(() -> {
+            Buffer response = execute(correlationId, operation, request);
+            context.runOnContext(v -> write(socket, response));
+        });
+        if (!admitted) {
+            respond(socket, correlationId, BinaryProtocol.REJECTED, 0);
+        }
+    }
+
+    private Buffer execute(long correlationId, byte operation, Buffer request) {
+        try {
+            switch (operation) {
+                case BinaryProtocol.DEPOSIT:
+                    boolean deposited = processing.addMoneyToAccount(BinaryProtocol.targetIban(request),
+                            BigDecimal.valueOf(BinaryProtocol.requestAmount(request), AMOUNT_SCALE));
+                    return BinaryProtocol.response(correlationId, deposited ? BinaryProtocol.OK : BinaryProtocol.DECLINED, 0);
+                case BinaryProtocol.TRANSFER:
+                    boolean transferred = processing.transferMoney(BinaryProtocol.sourceIban(request),
+                            BinaryProtocol.targetIban(request),
+                            BigDecimal.valueOf(BinaryProtocol.requestAmount(request), AMOUNT_SCALE));
+                    return BinaryProtocol.response(correlationId, transferred ? BinaryProtocol.OK : BinaryProtocol.DECLINED, 0);
+                default:
+                    return status(correlationId, BinaryProtocol.targetIban(request));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Binary request [{}] is failed: {}", correlationId, e.getMessage());
+            return BinaryProtocol.response(correlationId, BinaryProtocol.REJECTED, 0);
+        }
+    }
+
+    private Buffer status(long correlationId, String iban) {
+        JsonObject account = new JsonObject(processing.getAccountStatus(iban)).getJsonObject("value");
+        if (account == null || account.getString("amount") == null) {
+            return BinaryProtocol.response(correlationId, BinaryProtocol.NOT_FOUND, 0);
+        }
+        long amount = new BigDecimal(account.getString("amount")).movePointRight(AMOUNT_SCALE).longValueExact();
+        return BinaryProtocol.response(correlationId, BinaryProtocol.OK, amount);
+    }
+
+    private static void respond(NetSocket socket, long correlationId, byte result, long amount) {
+        write(socket, BinaryProtocol.response(correlationId, result, amount));
+    }
+
+    /**
+     * A client that does not read its responses stops the reading of its further requests.
+     */
+    private static void write(NetSocket socket, Buffer response) {
+        socket.write(response);
+        if (socket.writeQueueFull()) {
+            socket.pause();
+            socket.drainHandler(v -> socket.resume());
+        }
+    }
+}
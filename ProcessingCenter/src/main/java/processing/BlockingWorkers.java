@@ -0,0 +1,86 @@
+package processing;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named worker pool for the blocking JDBC and JTA work of the REST handlers, so the event loop keeps serving
+ * other connections while a database commit is slow. At most {@code poolSize + queueCapacity} tasks are admitted,
+ * further tasks are rejected at once instead of queuing without a bound.
+ */
+class BlockingWorkers {
+    static final int DEFAULT_POOL_SIZE = 32;
+    static final int DEFAULT_QUEUE_CAPACITY = 512;
+
+    private final WorkerExecutor executor;
+    private final int poolSize;
+    private final int maxAdmitted;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    BlockingWorkers(Vertx vertx, String name, int poolSize, int queueCapacity) {
+        this.executor = vertx.createSharedWorkerExecutor(name, poolSize);
+        this.poolSize = poolSize;
+        this.maxAdmitted = poolSize + queueCapacity;
+    }
+
+    /**
+     * Runs the task on a worker thread, tasks of one caller are not ordered.
+     *
+     * @return false if the queue is full and the task was not admitted
+     */
+    boolean execute(Runnable task) {
+        if (admitted.incrementAndGet() > maxAdmitted) {
+            admitted.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        long queuedAt = System.nanoTime();
+        executor.<Void>executeBlocking(future -> {
+            long waitNanos = System.nanoTime() - queuedAt;
+            totalWaitNanos.add(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            started.increment();
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                admitted.decrementAndGet();
+                completed.increment();
+            }
+            future.complete();
+        }, false, result -> {
+        });
+        return true;
+    }
+
+    JsonObject stats() {
+        long startedTasks = started.sum();
+        return new JsonObject()
+                .put("poolSize", poolSize)
+                .put("running", running.get())
+                .put("queueDepth", Math.max(0, admitted.get() - running.get()))
+                .put("queueCapacity", maxAdmitted - poolSize)
+                .put("completed", completed.sum())
+                .put("rejected", rejected.sum())
+                .put("avgWaitMicros", startedTasks > 0
+                        ? TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / startedTasks) : 0)
+                .put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+    }
+
+    void close() {
+        executor.close();
+    }
+}
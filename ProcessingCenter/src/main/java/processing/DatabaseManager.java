@@ -2,12 +2,78 @@ package processing;
 
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface DatabaseManager {
+    enum TransferResult {
+        COMPLETED,
+        /** The source account has not enough money or does not exist. */
+        INSUFFICIENT_FUNDS,
+        UNKNOWN_TARGET
+    }
+
     void initDb();
     String createAccount(String bankCode);
     void clear() throws SQLException;
     boolean withdraw(String account, BigDecimal value);
-    void deposit(String account, BigDecimal value) throws SQLException;
+
+    /**
+     * @return true if the account exists
+     */
+    boolean deposit(String account, BigDecimal value) throws SQLException;
     String status(String iban);
+
+    /**
+     * Reads the balance from the database, not from a cache.
+     *
+     * @return balance of the account, null if there is no such account
+     */
+    BigDecimal balance(String iban) throws SQLException;
+
+    /**
+     * Visits up to {@code limit} accounts with an IBAN above {@code afterIban} (null to start from the first one)
+     * in IBAN order. The scan seeks the IBAN index, so a page costs the same wherever it starts.
+     *
+     * @return IBAN of the last visited account if the limit was reached, null if there are no more accounts
+     */
+    String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) throws SQLException;
+
+    /**
+     * Moves money between two accounts of this database in one local transaction: the conditional debit
+     * and the credit go in one statement batch on one connection, their rows are locked in IBAN order.
+     * Must be called outside of a JTA transaction.
+     */
+    TransferResult transfer(String sourceIban, String targetIban, BigDecimal value) throws SQLException;
+
+    /**
+     * Opens an account with the given IBAN unless it already exists, for the inter-bank clearing accounts.
+     */
+    void openAccountIfAbsent(String iban) throws SQLException;
+
+    /**
+     * Like {@link #transfer}, but the source is a clearing account which may go below zero.
+     *
+     * @return true if the target account exists
+     */
+    boolean transferFromClearing(String clearingIban, String targetIban, BigDecimal value) throws SQLException;
+
+    /**
+     * Debits the source accounts of the transfers in one JDBC batch.
+     *
+     * @return per transfer, true if the source account had enough money
+     */
+    boolean[] withdrawBatch(List<Transfer> transfers) throws SQLException;
+
+    /**
+     * Credits the target accounts of the transfers in one JDBC batch.
+     *
+     * @return per transfer, true if the target account exists
+     */
+    boolean[] depositBatch(List<Transfer> transfers) throws SQLException;
+
+    /**
+     * Releases the connections or the store file, the committed changes are on disk afterwards.
+     */
+    void close();
 }
@@ -2,6 +2,7 @@ package processing;
 
 import com.atomikos.jdbc.AtomikosDataSourceBean;
 import com.fasterxml.jackson.databind.util.JSONPObject;
+import common.LatencyMetrics;
 import io.vertx.core.json.JsonObject;
 import liquibase.Contexts;
 import liquibase.LabelExpression;
@@ -17,23 +18,39 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.math.BigDecimal;
 import java.sql.*;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class H2XaDatabaseManager implements DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(H2XaDatabaseManager.class);
     private static final String DIS_DB_CHANGELOG_XML = "db.datamodel.changes.xml";
+    private static final String DEFAULT_DB_FOLDER = "./db/h2";
+    private static final int QUERY_CACHE_SIZE = 32;
+    private static final int LIST_FETCH_SIZE = 500;
     private final String h2ConnectionString;
     private static final String H2_USER = "sa";
     private static final String H2_PASSWRD = "sa";
-    private SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 
     private final AtomikosDataSourceBean dbPool;
+    private final IbanAllocator ibanAllocator = new IbanAllocator();
+    private final LatencyMetrics metrics;
 
-    H2XaDatabaseManager(String dbName) {
-        this.h2ConnectionString = String.format("jdbc:h2:./db/h2/%s;AUTO_RECONNECT=TRUE;MVCC=true", dbName.toLowerCase());
+    H2XaDatabaseManager(String dbName, LatencyMetrics metrics) {
+        this(dbName, DEFAULT_DB_FOLDER, metrics);
+    }
+
+    public H2XaDatabaseManager(String dbName, String dbFolder) {
+        this(dbName, dbFolder, Stages.metrics());
+    }
+
+    H2XaDatabaseManager(String dbName, String dbFolder, LatencyMetrics metrics) {
+        this.metrics = metrics;
+        this.h2ConnectionString = String.format("jdbc:h2:%s/%s;AUTO_RECONNECT=TRUE;MVCC=true;QUERY_CACHE_SIZE=%d",
+                dbFolder, dbName.toLowerCase(), QUERY_CACHE_SIZE);
         this.dbPool = createH2DisDatabaseXaConnectionsPool();
         initDb();
     }
@@ -88,25 +105,15 @@ public class H2XaDatabaseManager implements DatabaseManager {
 
     @Override
     public String createAccount(String bankCode) {
-        try (Connection conn = dbPool.getConnection();
-             Statement s = conn.createStatement()) {
+        try (Connection conn = borrowConnection()) {
+            String generatedIban = String.format("%s_%08d", bankCode, ibanAllocator.nextNumber(conn));
 
-            String sql = String.format("SELECT COUNT(*) FROM %s", "ACCOUNT");
-            s.execute(sql);
-            int accountsQty = 0;
-            try (ResultSet rs = s.getResultSet()) {
-                while (rs.next()) {
-                    accountsQty = rs.getInt(1);
-                }
+            try (PreparedStatement ps = conn.prepareStatement(AccountStatements.INSERT)) {
+                ps.setString(1, generatedIban);
+                ps.setBigDecimal(2, BigDecimal.valueOf(0.00));
+                ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                executeUpdate(ps);
             }
-            String generatedIban = String.format("%s_%08d", bankCode, accountsQty + 1);
-
-            sql = String.format("INSERT INTO ACCOUNT (IBAN,VALUE,LAST_UPDATE_DATETIME) VALUES ('%s', '%s', '%s')",
-                    generatedIban,
-                    BigDecimal.valueOf(0.00),
-                    dateFormatter.format(new Date())
-            );
-            s.execute(sql);
             return generatedIban;
         } catch (SQLException e) {
             logger.error(e.getMessage(), e);
@@ -116,21 +123,23 @@ public class H2XaDatabaseManager implements DatabaseManager {
 
     @Override
     public void clear() throws SQLException {
-        try (Connection conn = dbPool.getConnection();
-             Statement s = conn.createStatement()) {
-
-            String sql = String.format("TRUNCATE TABLE %s", "ACCOUNT");
-            s.execute(sql);
+        try (Connection conn = borrowConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(AccountStatements.TRUNCATE)) {
+                ps.execute();
+            }
+            ibanAllocator.reset(conn);
         }
     }
 
     @Override
     public boolean withdraw(String account, BigDecimal value) {
-        try (Connection conn = dbPool.getConnection();
-             Statement s = conn.createStatement()) {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.WITHDRAW)) {
 
-            String sql = String.format("UPDATE ACCOUNT SET VALUE = CASEWHEN(VALUE-%s < 0, '', VALUE-%s) WHERE IBAN = '%s'", value, value, account);
-            return s.executeUpdate(sql) == 1;
+            ps.setBigDecimal(1, value);
+            ps.setString(2, account);
+            ps.setBigDecimal(3, value);
+            return executeUpdate(ps) == 1;
         } catch (SQLException e) {
             logger.error(e.getMessage(), e);
         }
@@ -138,25 +147,24 @@ public class H2XaDatabaseManager implements DatabaseManager {
     }
 
     @Override
-    public void deposit(String account, BigDecimal value) throws SQLException {
-        try (Connection conn = dbPool.getConnection();
-             Statement s = conn.createStatement()) {
+    public boolean deposit(String account, BigDecimal value) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.DEPOSIT)) {
 
-            String sql = String.format("UPDATE ACCOUNT SET VALUE = VALUE + %s WHERE IBAN = '%s'", value, account);
-            s.execute(sql);
+            ps.setBigDecimal(1, value);
+            ps.setString(2, account);
+            return executeUpdate(ps) == 1;
         }
     }
 
     @Override
     public String status(String iban) {
         JsonObject result = new JsonObject();
-        try (Connection conn = dbPool.getConnection();
-             Statement s = conn.createStatement()) {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.STATUS)) {
 
-            String sql = String.format("SELECT IBAN, VALUE FROM ACCOUNT WHERE IBAN = '%s'", iban);
-            s.execute(sql);
-
-            try (ResultSet rs = s.getResultSet()) {
+            ps.setString(1, iban);
+            try (ResultSet rs = executeQuery(ps)) {
                 JsonObject account = new JsonObject();
                 while (rs.next()) {
                     account.put("iban", rs.getString("IBAN"));
@@ -169,4 +177,204 @@ public class H2XaDatabaseManager implements DatabaseManager {
         }
         return result.toString();
     }
+
+    @Override
+    public String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.LIST_AFTER)) {
+
+            ps.setString(1, afterIban != null ? afterIban : "");
+            ps.setInt(2, limit);
+            ps.setFetchSize(Math.min(limit, LIST_FETCH_SIZE));
+            String last = null;
+            int visited = 0;
+            try (ResultSet rs = executeQuery(ps)) {
+                while (rs.next()) {
+                    last = rs.getString(1);
+                    action.accept(last, rs.getBigDecimal(2));
+                    visited++;
+                }
+            }
+            return visited == limit ? last : null;
+        }
+    }
+
+    @Override
+    public TransferResult transfer(String sourceIban, String targetIban, BigDecimal value) throws SQLException {
+        return move(sourceIban, targetIban, value, true);
+    }
+
+    @Override
+    public void openAccountIfAbsent(String iban) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.INSERT_IF_ABSENT)) {
+
+            ps.setString(1, iban);
+            ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            ps.setString(3, iban);
+            executeUpdate(ps);
+        }
+    }
+
+    @Override
+    public boolean transferFromClearing(String clearingIban, String targetIban, BigDecimal value) throws SQLException {
+        return move(clearingIban, targetIban, value, false) == TransferResult.COMPLETED;
+    }
+
+    /**
+     * Sends the debit and the credit as one batch of {@link AccountStatements#MOVE}, ordered by IBAN,
+     * so two opposite transfers lock their rows in the same order. The update counts tell the result,
+     * the transaction is rolled back unless both rows were updated.
+     *
+     * @param checkBalance decline the transfer if the source account has not enough money
+     */
+    private TransferResult move(String sourceIban, String targetIban, BigDecimal value, boolean checkBalance)
+            throws SQLException {
+        boolean sourceFirst = sourceIban.compareTo(targetIban) < 0;
+        try (Connection conn = borrowConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(AccountStatements.MOVE)) {
+                if (sourceFirst) {
+                    addMove(ps, sourceIban, value.negate(), checkBalance);
+                    addMove(ps, targetIban, value, false);
+                } else {
+                    addMove(ps, targetIban, value, false);
+                    addMove(ps, sourceIban, value.negate(), checkBalance);
+                }
+                int[] updated = executeBatch(ps);
+                TransferResult result = updated[sourceFirst ? 0 : 1] != 1 ? TransferResult.INSUFFICIENT_FUNDS
+                        : updated[sourceFirst ? 1 : 0] != 1 ? TransferResult.UNKNOWN_TARGET
+                        : TransferResult.COMPLETED;
+                if (result == TransferResult.COMPLETED) {
+                    commit(conn);
+                } else {
+                    conn.rollback();
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void addMove(PreparedStatement ps, String iban, BigDecimal delta, boolean checkBalance)
+            throws SQLException {
+        ps.setBigDecimal(1, delta);
+        ps.setString(2, iban);
+        ps.setBoolean(3, !checkBalance);
+        ps.setBigDecimal(4, delta.negate());
+        ps.addBatch();
+    }
+
+    @Override
+    public boolean[] withdrawBatch(List<Transfer> transfers) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.WITHDRAW)) {
+
+            Integer[] order = ibanOrder(transfers, Transfer::getSourceIban);
+            for (int index : order) {
+                Transfer transfer = transfers.get(index);
+                ps.setBigDecimal(1, transfer.getValue());
+                ps.setString(2, transfer.getSourceIban());
+                ps.setBigDecimal(3, transfer.getValue());
+                ps.addBatch();
+            }
+            return updated(executeBatch(ps), order);
+        }
+    }
+
+    @Override
+    public boolean[] depositBatch(List<Transfer> transfers) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.DEPOSIT)) {
+
+            Integer[] order = ibanOrder(transfers, Transfer::getTargetIban);
+            for (int index : order) {
+                Transfer transfer = transfers.get(index);
+                ps.setBigDecimal(1, transfer.getValue());
+                ps.setString(2, transfer.getTargetIban());
+                ps.addBatch();
+            }
+            return updated(executeBatch(ps), order);
+        }
+    }
+
+    @Override
+    public BigDecimal balance(String iban) throws SQLException {
+        try (Connection conn = borrowConnection();
+             PreparedStatement ps = conn.prepareStatement(AccountStatements.STATUS)) {
+
+            ps.setString(1, iban);
+            try (ResultSet rs = executeQuery(ps)) {
+                return rs.next() ? rs.getBigDecimal("VALUE") : null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        dbPool.close();
+    }
+
+    private Connection borrowConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = dbPool.getConnection();
+        metrics.recordStage(Stages.CONNECTION_BORROW, start);
+        return conn;
+    }
+
+    private int executeUpdate(PreparedStatement ps) throws SQLException {
+        long start = System.nanoTime();
+        int updated = ps.executeUpdate();
+        metrics.recordStage(Stages.SQL_EXECUTE, start);
+        return updated;
+    }
+
+    private ResultSet executeQuery(PreparedStatement ps) throws SQLException {
+        long start = System.nanoTime();
+        ResultSet rs = ps.executeQuery();
+        metrics.recordStage(Stages.SQL_EXECUTE, start);
+        return rs;
+    }
+
+    private int[] executeBatch(PreparedStatement ps) throws SQLException {
+        long start = System.nanoTime();
+        int[] updateCounts = ps.executeBatch();
+        metrics.recordStage(Stages.SQL_EXECUTE, start);
+        return updateCounts;
+    }
+
+    private void commit(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+        conn.commit();
+        metrics.recordStage(Stages.LOCAL_COMMIT, start);
+    }
+
+    /**
+     * Positions of the transfers in IBAN order, so two batches over the same accounts lock their rows
+     * in the same order. The sort is stable, the transfers of one account keep the order of the request.
+     */
+    private static Integer[] ibanOrder(List<Transfer> transfers, Function<Transfer, String> iban) {
+        Integer[] order = new Integer[transfers.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> iban.apply(transfers.get(i)),
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        return order;
+    }
+
+    /**
+     * @return per transfer in the request order, true if its statement updated the row
+     */
+    private static boolean[] updated(int[] updateCounts, Integer[] order) {
+        boolean[] result = new boolean[updateCounts.length];
+        for (int i = 0; i < updateCounts.length; i++) {
+            result[order[i]] = updateCounts[i] == 1;
+        }
+        return result;
+    }
 }
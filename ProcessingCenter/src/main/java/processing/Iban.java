@@ -0,0 +1,46 @@
+package processing;
+
+/**
+ * IBANs of the processing center have the form BANK01_00000042: the bank number and the account number in it.
+ */
+final class Iban {
+    private static final String PREFIX = "BANK";
+    private static final int ACCOUNT_BITS = 40;
+    private static final long ACCOUNT_MASK = (1L << ACCOUNT_BITS) - 1;
+    private static final long MAX_BANK = Long.MAX_VALUE >> ACCOUNT_BITS;
+
+    private Iban() {
+    }
+
+    /**
+     * Parses the bank and account numbers without allocating, the id of BANK01_00000042 is {@code 1 << 40 | 42}.
+     *
+     * @return the account id or -1 if the IBAN has another form
+     */
+    static long parseAccountId(String iban) {
+        if (iban == null || !iban.startsWith(PREFIX)) {
+            return -1;
+        }
+        long bank = 0;
+        int i = PREFIX.length();
+        for (; i < iban.length() && iban.charAt(i) != '_'; i++) {
+            char c = iban.charAt(i);
+            if (c < '0' || c > '9' || bank > MAX_BANK / 10) {
+                return -1;
+            }
+            bank = bank * 10 + (c - '0');
+        }
+        long number = 0;
+        if (++i >= iban.length()) {
+            return -1;
+        }
+        for (; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c < '0' || c > '9' || number > ACCOUNT_MASK / 10) {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return bank > MAX_BANK ? -1 : bank << ACCOUNT_BITS | number;
+    }
+}
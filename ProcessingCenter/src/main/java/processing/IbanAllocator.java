@@ -0,0 +1,43 @@
+package processing;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out account numbers from blocks reserved in the database sequence,
+ * so a node only goes to the database once per {@link #BLOCK_SIZE} accounts.
+ * Numbers left in the block of a stopped node are not reused.
+ */
+class IbanAllocator {
+    static final int BLOCK_SIZE = 1000;
+
+    private long next;
+    private long limit;
+
+    synchronized long nextNumber(Connection conn) throws SQLException {
+        if (next >= limit) {
+            long block = nextBlock(conn);
+            next = (block - 1) * BLOCK_SIZE + 1;
+            limit = next + BLOCK_SIZE;
+        }
+        return next++;
+    }
+
+    synchronized void reset(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(AccountStatements.RESTART_NUMBER_BLOCKS)) {
+            ps.execute();
+        }
+        next = 0;
+        limit = 0;
+    }
+
+    private static long nextBlock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(AccountStatements.NEXT_NUMBER_BLOCK);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package processing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the settlement of the pairs of banks with cross-bank transfers whose customer legs are committed
+ * locally against the clearing accounts. One thread settles every pair with new transfers
+ * each {@code intervalMillis} or after {@code maxTransfers} transfers, whichever comes first,
+ * so there is one distributed transaction per pair and window instead of one per transfer.
+ * <p>
+ * The net position of a pair is not kept here: it is the balance of the clearing accounts, committed together
+ * with the customer legs, so it survives a crash and a settlement only has to know which pairs to look at.
+ */
+class InterbankNetting implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InterbankNetting.class);
+    private static final String SEPARATOR = "->";
+    private static final long CLOSE_WAIT_MILLIS = 1;
+    static final long DEFAULT_INTERVAL_MILLIS = 1_000;
+    static final int DEFAULT_MAX_TRANSFERS = 10_000;
+
+    /**
+     * Moves the net position of two banks between their clearing accounts.
+     */
+    @FunctionalInterface
+    interface Settlement {
+        boolean settle(String firstCode, String secondCode);
+    }
+
+    private final Set<String> pairs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger unsettledTransfers = new AtomicInteger();
+    private final AtomicBoolean settlementQueued = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closed;
+    private final int maxTransfers;
+    private final Settlement settlement;
+    private final ScheduledExecutorService settler;
+
+    InterbankNetting(long intervalMillis, int maxTransfers, Settlement settlement) {
+        this.maxTransfers = maxTransfers;
+        this.settlement = settlement;
+        this.settler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "interbank-settlement");
+            thread.setDaemon(true);
+            return thread;
+        });
+        settler.scheduleWithFixedDelay(this::settleAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a netted transfer, which has to be ended with {@link #exit()}.
+     *
+     * @return false if the netting is closed and the transfer has to go another way
+     */
+    boolean enter() {
+        inFlight.incrementAndGet();
+        if (closed) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Adds a transfer whose both customer legs are committed, between {@link #enter()} and {@link #exit()}.
+     */
+    void record(String sourceCode, String targetCode) {
+        track(sourceCode, targetCode);
+        if (unsettledTransfers.incrementAndGet() >= maxTransfers && settlementQueued.compareAndSet(false, true)) {
+            settler.execute(this::settleAll);
+        }
+    }
+
+    /**
+     * Marks a pair whose clearing accounts may hold a position, e.g. left by a crash, for the next settlement.
+     */
+    void track(String firstCode, String secondCode) {
+        if (firstCode.equals(secondCode)) {
+            return;
+        }
+        pairs.add(firstCode.compareTo(secondCode) < 0
+                ? firstCode + SEPARATOR + secondCode
+                : secondCode + SEPARATOR + firstCode);
+    }
+
+    /**
+     * Refuses new netted transfers, waits for the running ones, settles the pairs and stops the settlement thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        while (inFlight.get() > 0) {
+            try {
+                Thread.sleep(CLOSE_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        settler.execute(this::settleAll);
+        settler.shutdown();
+        try {
+            settler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes each pair out of the set, so transfers recorded meanwhile mark it for the next window.
+     * A failed settlement marks it again.
+     */
+    private void settleAll() {
+        settlementQueued.set(false);
+        unsettledTransfers.set(0);
+        for (String pair : pairs) {
+            if (!pairs.remove(pair)) {
+                continue;
+            }
+            int separator = pair.indexOf(SEPARATOR);
+            String first = pair.substring(0, separator);
+            String second = pair.substring(separator + SEPARATOR.length());
+            if (settlement.settle(first, second)) {
+                logger.debug("Net position of [{}] is settled!", pair);
+            } else {
+                pairs.add(pair);
+            }
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package processing;
+
+import com.atomikos.datasource.xa.XATransactionalResource;
+import com.atomikos.icatch.config.Configuration;
+import common.LatencyMetrics;
+import io.vertx.core.json.JsonObject;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.TransactionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Accounts of a bank in an embedded MVStore: a transactional map from IBAN to the balance in minor units,
+ * without SQL parsing, JDBC and a connection pool on the way of a point read or update.
+ * <p>
+ * The writers of an account are serialized by striped semaphores held until their MVStore transaction ends,
+ * the transaction makes the updates of several accounts atomic. Inside a JTA transaction the operations
+ * share one MVStore transaction enlisted as an {@link XAResource}: the XA prepare stores it as prepared
+ * under the name of its Xid, so after a crash it waits for the transaction manager to commit or roll it back
+ * through {@link XAResource#recover}. Committed updates reach the file with the store auto-commit and on close.
+ */
+public class MvStoreDatabaseManager implements DatabaseManager {
+    private static final Logger logger = LoggerFactory.getLogger(MvStoreDatabaseManager.class);
+    private static final String DEFAULT_DB_FOLDER = "./db/mvstore";
+    private static final String ACCOUNTS = "ACCOUNT";
+    private static final int SCALE = 2;
+    private static final int LOCK_STRIPES = 1024;
+    private static final long LOCK_TIMEOUT_MILLIS = 2_000;
+
+    private final String bankCode;
+    private final TransactionManager tm;
+    private final LatencyMetrics metrics;
+    private final MVStore store;
+    private final TransactionStore transactions;
+    private final Semaphore[] locks = new Semaphore[LOCK_STRIPES];
+    private final AtomicLong lastNumber = new AtomicLong();
+    private final Map<Transaction, Unit> joined = new ConcurrentHashMap<>();
+    private final String resourceName;
+
+    MvStoreDatabaseManager(String bankCode, TransactionManager tm, LatencyMetrics metrics) {
+        this(bankCode, DEFAULT_DB_FOLDER, tm, metrics);
+    }
+
+    public MvStoreDatabaseManager(String bankCode, String dbFolder, TransactionManager tm, LatencyMetrics metrics) {
+        this.bankCode = bankCode;
+        this.tm = tm;
+        this.metrics = metrics;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Semaphore(1);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        new File(dbFolder).mkdirs();
+        this.store = new MVStore.Builder()
+                .fileName(new File(dbFolder, bankCode.toLowerCase() + ".mv").getPath())
+                .open();
+        this.transactions = new TransactionStore(store);
+        initDb();
+        this.resourceName = "MVSTORE-" + bankCode + "-" + System.nanoTime();
+        Configuration.addResource(new RecoverableStore(resourceName));
+    }
+
+    /**
+     * Rolls back the transactions left open by a crash, except the prepared ones which are resolved
+     * by the transaction manager, and takes the account numbers after the highest existing one.
+     */
+    @Override
+    public void initDb() {
+        transactions.init();
+        for (TransactionStore.Transaction open : transactions.getOpenTransactions()) {
+            if (open.getStatus() != TransactionStore.Transaction.STATUS_PREPARED) {
+                open.rollback();
+            }
+        }
+        TransactionStore.Transaction tx = transactions.begin();
+        TransactionStore.TransactionMap<String, Long> accounts = tx.openMap(ACCOUNTS);
+        String prefix = bankCode + "_";
+        Iterator<String> keys = accounts.keyIterator(prefix);
+        long last = 0;
+        while (keys.hasNext()) {
+            String iban = keys.next();
+            if (!iban.startsWith(prefix)) {
+                break;
+            }
+            try {
+                last = Math.max(last, Long.parseLong(iban.substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                // a clearing account
+            }
+        }
+        tx.commit();
+        lastNumber.set(last);
+    }
+
+    @Override
+    public String createAccount(String bankCode) {
+        String generatedIban = String.format("%s_%08d", bankCode, lastNumber.incrementAndGet());
+        try {
+            inTransaction(unit -> unit.put(generatedIban, 0L));
+            return generatedIban;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return "";
+    }
+
+    @Override
+    public void clear() throws SQLException {
+        inTransaction(unit -> {
+            unit.accounts.clear();
+            return null;
+        });
+        lastNumber.set(0);
+    }
+
+    @Override
+    public boolean withdraw(String account, BigDecimal value) {
+        try {
+            return inTransaction(unit -> {
+                unit.lock(account);
+                Long balance = unit.accounts.get(account);
+                long amount = minorUnits(value);
+                if (balance == null || balance < amount) {
+                    return false;
+                }
+                return unit.put(account, balance - amount);
+            });
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean deposit(String account, BigDecimal value) throws SQLException {
+        return inTransaction(unit -> add(unit, account, minorUnits(value)));
+    }
+
+    @Override
+    public String status(String iban) {
+        JsonObject account = new JsonObject();
+        TransactionStore.Transaction tx = transactions.begin();
+        try {
+            Long balance = tx.<String, Long>openMap(ACCOUNTS).get(iban);
+            if (balance != null) {
+                account.put("iban", iban);
+                account.put("amount", BigDecimal.valueOf(balance, SCALE).toPlainString());
+            }
+        } finally {
+            tx.commit();
+        }
+        return new JsonObject().put("value", account).toString();
+    }
+
+    @Override
+    public BigDecimal balance(String iban) {
+        TransactionStore.Transaction tx = transactions.begin();
+        try {
+            Long balance = tx.<String, Long>openMap(ACCOUNTS).get(iban);
+            return balance != null ? BigDecimal.valueOf(balance, SCALE) : null;
+        } finally {
+            tx.commit();
+        }
+    }
+
+    @Override
+    public String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) {
+        TransactionStore.Transaction tx = transactions.begin();
+        try {
+            TransactionStore.TransactionMap<String, Long> accounts = tx.openMap(ACCOUNTS);
+            Iterator<String> keys = accounts.keyIterator(afterIban);
+            String last = null;
+            int visited = 0;
+            while (visited < limit && keys.hasNext()) {
+                String iban = keys.next();
+                Long balance = iban.equals(afterIban) ? null : accounts.get(iban);
+                if (balance != null) {
+                    last = iban;
+                    action.accept(iban, BigDecimal.valueOf(balance, SCALE));
+                    visited++;
+                }
+            }
+            return visited == limit ? last : null;
+        } finally {
+            tx.commit();
+        }
+    }
+
+    @Override
+    public TransferResult transfer(String sourceIban, String targetIban, BigDecimal value) throws SQLException {
+        return transfer(sourceIban, targetIban, minorUnits(value), true);
+    }
+
+    @Override
+    public void openAccountIfAbsent(String iban) throws SQLException {
+        inTransaction(unit -> {
+            unit.lock(iban);
+            return unit.accounts.get(iban) == null && unit.put(iban, 0L);
+        });
+    }
+
+    @Override
+    public boolean transferFromClearing(String clearingIban, String targetIban, BigDecimal value) throws SQLException {
+        return transfer(clearingIban, targetIban, minorUnits(value), false) == TransferResult.COMPLETED;
+    }
+
+    @Override
+    public boolean[] withdrawBatch(List<Transfer> transfers) throws SQLException {
+        return inTransaction(unit -> {
+            unit.lockAll(transfers);
+            boolean[] withdrawn = new boolean[transfers.size()];
+            for (int i = 0; i < withdrawn.length; i++) {
+                Transfer transfer = transfers.get(i);
+                String iban = transfer.getSourceIban();
+                unit.lock(iban);
+                Long balance = unit.accounts.get(iban);
+                long amount = minorUnits(transfer.getValue());
+                withdrawn[i] = balance != null && balance >= amount && unit.put(iban, balance - amount);
+            }
+            return withdrawn;
+        });
+    }
+
+    @Override
+    public boolean[] depositBatch(List<Transfer> transfers) throws SQLException {
+        return inTransaction(unit -> {
+            unit.lockAll(transfers);
+            boolean[] deposited = new boolean[transfers.size()];
+            for (int i = 0; i < deposited.length; i++) {
+                Transfer transfer = transfers.get(i);
+                deposited[i] = add(unit, transfer.getTargetIban(), minorUnits(transfer.getValue()));
+            }
+            return deposited;
+        });
+    }
+
+    /**
+     * Locks both accounts in stripe order, so two opposite transfers do not wait for each other.
+     */
+    private TransferResult transfer(String sourceIban, String targetIban, long amount, boolean checkBalance)
+            throws SQLException {
+        return inTransaction(unit -> {
+            if (stripe(sourceIban) <= stripe(targetIban)) {
+                unit.lock(sourceIban);
+                unit.lock(targetIban);
+            } else {
+                unit.lock(targetIban);
+                unit.lock(sourceIban);
+            }
+            Long source = unit.accounts.get(sourceIban);
+            Long target = unit.accounts.get(targetIban);
+            if (source == null || checkBalance && source < amount) {
+                return TransferResult.INSUFFICIENT_FUNDS;
+            }
+            if (target == null) {
+                return TransferResult.UNKNOWN_TARGET;
+            }
+            unit.put(sourceIban, source - amount);
+            unit.put(targetIban, target + amount);
+            return TransferResult.COMPLETED;
+        });
+    }
+
+    /**
+     * @return false if there is no such account
+     */
+    private static boolean add(Unit unit, String iban, long amount) throws SQLException {
+        unit.lock(iban);
+        Long balance = unit.accounts.get(iban);
+        return balance != null && unit.put(iban, balance + amount);
+    }
+
+    /**
+     * Runs the work in the MVStore transaction joined to the current JTA transaction, if there is one,
+     * otherwise in its own transaction committed when the work is done.
+     */
+    private <T> T inTransaction(Work<T> work) throws SQLException {
+        Transaction jta = activeTransaction();
+        if (jta != null) {
+            return work.apply(joined(jta));
+        }
+        Unit unit = new Unit();
+        T result;
+        try {
+            result = work.apply(unit);
+        } catch (SQLException | RuntimeException e) {
+            unit.rollback();
+            throw e;
+        }
+        long start = System.nanoTime();
+        try {
+            unit.commit();
+        } catch (RuntimeException e) {
+            unit.rollback();
+            throw e;
+        }
+        metrics.recordStage(Stages.LOCAL_COMMIT, start);
+        return result;
+    }
+
+    private Transaction activeTransaction() throws SQLException {
+        try {
+            Transaction tx = tm.getTransaction();
+            return tx != null && tx.getStatus() == Status.STATUS_ACTIVE ? tx : null;
+        } catch (SystemException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private Unit joined(Transaction jta) throws SQLException {
+        Unit unit = joined.get(jta);
+        if (unit != null) {
+            return unit;
+        }
+        Unit created = new Unit();
+        try {
+            if (!jta.enlistResource(new Branch(jta, created))) {
+                throw new SQLException("MVStore transaction of bank [" + bankCode + "] is not enlisted");
+            }
+        } catch (RollbackException | SystemException e) {
+            created.rollback();
+            throw new SQLException(e);
+        } catch (SQLException | RuntimeException e) {
+            created.rollback();
+            throw e;
+        }
+        joined.put(jta, created);
+        return created;
+    }
+
+    /**
+     * The transactions prepared before a crash with the Xids they are named by.
+     */
+    private List<TransactionStore.Transaction> prepared() {
+        List<TransactionStore.Transaction> prepared = new ArrayList<>();
+        for (TransactionStore.Transaction open : transactions.getOpenTransactions()) {
+            if (open.getStatus() == TransactionStore.Transaction.STATUS_PREPARED && open.getName() != null) {
+                prepared.add(open);
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Commits the store to the file and closes it.
+     */
+    @Override
+    public void close() {
+        Configuration.removeResource(resourceName);
+        store.close();
+    }
+
+    private static int stripe(String iban) {
+        return iban.hashCode() & (LOCK_STRIPES - 1);
+    }
+
+    private static long minorUnits(BigDecimal value) throws SQLException {
+        try {
+            return value.setScale(SCALE, BigDecimal.ROUND_UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new SQLException("Wrong amount [" + value + "]: " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Work<T> {
+        T apply(Unit unit) throws SQLException;
+    }
+
+    /**
+     * An MVStore transaction with the account locks it holds.
+     */
+    private final class Unit {
+        final TransactionStore.Transaction tx = transactions.begin();
+        final TransactionStore.TransactionMap<String, Long> accounts = tx.openMap(ACCOUNTS);
+        private final BitSet held = new BitSet(LOCK_STRIPES);
+        private boolean ended;
+
+        void lock(String iban) throws SQLException {
+            lock(stripe(iban), "account [" + iban + "]");
+        }
+
+        /**
+         * Locks the accounts of this bank on both sides of a batch in stripe order, so two batches over the same
+         * accounts do not wait for each other. A group within the bank debits and credits in one unit,
+         * its credits find their stripes already held instead of taking them out of order.
+         */
+        void lockAll(List<Transfer> transfers) throws SQLException {
+            BitSet stripes = new BitSet(LOCK_STRIPES);
+            String prefix = bankCode + "_";
+            for (Transfer transfer : transfers) {
+                for (String account : new String[]{transfer.getSourceIban(), transfer.getTargetIban()}) {
+                    if (account != null && account.startsWith(prefix)) {
+                        stripes.set(stripe(account));
+                    }
+                }
+            }
+            for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                lock(stripe, "stripe [" + stripe + "]");
+            }
+        }
+
+        private void lock(int stripe, String what) throws SQLException {
+            if (held.get(stripe)) {
+                return;
+            }
+            try {
+                if (!locks[stripe].tryAcquire(LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Timeout on waiting for the lock of " + what);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted on waiting for the lock of " + what);
+            }
+            held.set(stripe);
+        }
+
+        /**
+         * @return true, the account is locked by this transaction, so the update can not conflict
+         */
+        boolean put(String iban, long balance) throws SQLException {
+            lock(iban);
+            if (!accounts.tryPut(iban, balance)) {
+                throw new SQLException("Account [" + iban + "] is locked by another transaction");
+            }
+            return true;
+        }
+
+        /**
+         * Keeps the updates and the name of the Xid in the store, so the transaction outlives a crash.
+         */
+        void prepare(Xid xid) {
+            tx.setName(XidName.of(xid));
+            tx.prepare();
+        }
+
+        /**
+         * If the commit fails the transaction is still open and has to be rolled back.
+         */
+        void commit() {
+            if (ended) {
+                return;
+            }
+            tx.commit();
+            ended = true;
+            release();
+        }
+
+        void rollback() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            try {
+                tx.rollback();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            for (int stripe = held.nextSetBit(0); stripe >= 0; stripe = held.nextSetBit(stripe + 1)) {
+                locks[stripe].release();
+            }
+            held.clear();
+        }
+    }
+
+    /**
+     * The MVStore transaction of one JTA transaction, or without a unit the prepared transactions of the store
+     * left by a crash. Every branch of the store is the same resource manager to the transaction manager.
+     */
+    private final class Branch implements XAResource {
+        private final Transaction jta;
+        private final Unit unit;
+        private int timeoutSeconds;
+
+        Branch(Transaction jta, Unit unit) {
+            this.jta = jta;
+            this.unit = unit;
+        }
+
+        @Override
+        public void start(Xid xid, int flags) {
+        }
+
+        @Override
+        public void end(Xid xid, int flags) {
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            if (unit == null) {
+                throw new XAException(XAException.XAER_NOTA);
+            }
+            try {
+                unit.prepare(xid);
+                return XA_OK;
+            } catch (RuntimeException e) {
+                logger.error("MVStore transaction of bank [{}] is not prepared: {}", bankCode, e.getMessage());
+                abort();
+                throw error(XAException.XA_RBROLLBACK, e);
+            }
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            if (unit == null) {
+                resolve(xid, true);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                unit.commit();
+            } catch (RuntimeException e) {
+                logger.error("MVStore transaction of bank [{}] is not committed: {}", bankCode, e.getMessage());
+                if (onePhase) {
+                    abort();
+                    throw error(XAException.XA_RBROLLBACK, e);
+                }
+                // a prepared transaction stays in the store for the recovery
+                throw error(XAException.XAER_RMFAIL, e);
+            }
+            joined.remove(jta);
+            metrics.recordStage(Stages.LOCAL_COMMIT, start);
+        }
+
+        @Override
+        public void rollback(Xid xid) throws XAException {
+            if (unit == null) {
+                resolve(xid, false);
+                return;
+            }
+            abort();
+        }
+
+        @Override
+        public Xid[] recover(int flag) {
+            if ((flag & TMSTARTRSCAN) == 0) {
+                return new Xid[0];
+            }
+            List<TransactionStore.Transaction> prepared = prepared();
+            Xid[] xids = new Xid[prepared.size()];
+            for (int i = 0; i < xids.length; i++) {
+                xids[i] = XidName.parse(prepared.get(i).getName());
+            }
+            return xids;
+        }
+
+        @Override
+        public void forget(Xid xid) {
+        }
+
+        @Override
+        public boolean isSameRM(XAResource other) {
+            return other instanceof Branch && ((Branch) other).store() == store;
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return timeoutSeconds;
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) {
+            this.timeoutSeconds = seconds;
+            return true;
+        }
+
+        private MVStore store() {
+            return store;
+        }
+
+        private void abort() {
+            joined.remove(jta);
+            unit.rollback();
+        }
+
+        private void resolve(Xid xid, boolean commit) throws XAException {
+            String name = XidName.of(xid);
+            for (TransactionStore.Transaction tx : prepared()) {
+                if (name.equals(tx.getName())) {
+                    if (commit) {
+                        tx.commit();
+                    } else {
+                        tx.rollback();
+                    }
+                    logger.info("Prepared MVStore transaction [{}] of bank [{}] is {}!", name, bankCode,
+                            commit ? "committed" : "rolled back");
+                    return;
+                }
+            }
+            throw new XAException(XAException.XAER_NOTA);
+        }
+
+        private XAException error(int code, Exception cause) {
+            XAException e = new XAException(code);
+            e.initCause(cause);
+            return e;
+        }
+    }
+
+    /**
+     * Gives the transaction manager the prepared transactions of the store on recovery.
+     */
+    private final class RecoverableStore extends XATransactionalResource {
+        RecoverableStore(String name) {
+            super(name);
+        }
+
+        @Override
+        protected XAResource refreshXAConnection() {
+            return new Branch(null, null);
+        }
+    }
+
+    /**
+     * A Xid written as the name of an MVStore transaction: format id and the hex of both parts.
+     */
+    private static final class XidName implements Xid {
+        private static final char SEPARATOR = '_';
+
+        private final int formatId;
+        private final byte[] globalTransactionId;
+        private final byte[] branchQualifier;
+
+        private XidName(int formatId, byte[] globalTransactionId, byte[] branchQualifier) {
+            this.formatId = formatId;
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+
+        static String of(Xid xid) {
+            return xid.getFormatId() + String.valueOf(SEPARATOR) + hex(xid.getGlobalTransactionId())
+                    + SEPARATOR + hex(xid.getBranchQualifier());
+        }
+
+        static XidName parse(String name) {
+            int first = name.indexOf(SEPARATOR);
+            int second = name.indexOf(SEPARATOR, first + 1);
+            return new XidName(Integer.parseInt(name.substring(0, first)),
+                    bytes(name.substring(first + 1, second)), bytes(name.substring(second + 1)));
+        }
+
+        private static String hex(byte[] bytes) {
+            StringBuilder text = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                text.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return text.toString();
+        }
+
+        private static byte[] bytes(String hex) {
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+
+        @Override
+        public int getFormatId() {
+            return formatId;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return globalTransactionId.clone();
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return branchQualifier.clone();
+        }
+    }
+}
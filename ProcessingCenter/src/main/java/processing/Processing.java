@@ -2,13 +2,33 @@ package processing;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface Processing {
     String createBank();
     String createAccount(String bank);
-    void addMoneyToAccount(String iban, BigDecimal value);
-    void transferMoney(String sourceIban, String targetIban, BigDecimal value);
+
+    /**
+     * @return true if the money is deposited, false if the request is wrong, the account is unknown or it failed
+     */
+    boolean addMoneyToAccount(String iban, BigDecimal value);
+
+    /**
+     * @return true if the money is moved, false if it is declined (not enough money, unknown account) or failed
+     */
+    boolean transferMoney(String sourceIban, String targetIban, BigDecimal value);
+    List<Boolean> transferMoneyBatch(List<Transfer> transfers);
     String getAccountStatus(String iban);
+
+    /**
+     * Visits up to {@code limit} accounts of the bank after {@code afterIban} (null to start from the first one)
+     * in IBAN order.
+     *
+     * @return IBAN of the last visited account if the limit was reached, null if there are no more accounts
+     * @throws IllegalArgumentException if the bank is unknown
+     * @throws IllegalStateException if the accounts cannot be read, so a failed page is never taken for the last one
+     */
+    String forEachAccount(String bankCode, String afterIban, int limit, BiConsumer<String, BigDecimal> action);
     void deleteAllAccounts(String bank);
     List<String> getAllBankCodes();
 
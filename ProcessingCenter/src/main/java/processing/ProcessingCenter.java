@@ -1,19 +1,35 @@
 package processing;
 
 import com.atomikos.icatch.jta.UserTransactionImp;
+import com.atomikos.icatch.jta.UserTransactionManager;
+import common.AuditLog;
+import common.LatencyMetrics;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import org.apache.logging.log4j.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class ProcessingCenter implements Processing {
     static {
@@ -28,12 +44,25 @@ public class ProcessingCenter implements Processing {
 
     private static final Logger logger = LoggerFactory.getLogger(ProcessingCenter.class);
     private static final UserTransactionImp utx = new UserTransactionImp();
+    private static final UserTransactionManager tm = new UserTransactionManager();
+    private static final int MAX_TRANSFERS_PER_TRANSACTION = 1_000;
     private final ConcurrentHashMap<String, Bank> banks = new ConcurrentHashMap<>();
-    private SslRestServer rest;
+    private final LatencyMetrics metrics = Stages.metrics();
+    private Vertx rest;
+    private BinaryServer binary;
+    private volatile AuditLog audit;
+    private volatile InterbankNetting netting;
+    // a settlement reads the clearing balance it moves, two of them must not move the same balance twice
+    private final Object settlementLock = new Object();
 
 
     public ProcessingCenter() {
-        //
+        // local transactions of the single-bank fast path do not start the transaction manager by themselves
+        try {
+            tm.init();
+        } catch (SystemException e) {
+            logger.error(e.getMessage(), e);
+        }
     }
 
     public String getBankCodeFromResponse(String response) {
@@ -48,11 +77,19 @@ public class ProcessingCenter implements Processing {
         return account.getString("iban");
     }
 
+    /**
+     * Synchronized so that concurrent callers from several REST server instances get different bank codes.
+     */
     @Override
-    public String createBank() {
+    public synchronized String createBank() {
         logger.info("Creating Bank...");
         String generatedCode = String.format("BANK%02d", banks.size() + 1);
-        banks.put(generatedCode, new BankImpl(generatedCode));
+        banks.put(generatedCode, new BankImpl(generatedCode, tm, metrics));
+        InterbankNetting nettingMode = netting;
+        if (nettingMode != null) {
+            // the database of the bank may be reopened with positions left by a crash
+            banks.keySet().forEach(code -> nettingMode.track(generatedCode, code));
+        }
         logger.info("Bank [{}] was created!", generatedCode);
         return String.format("{\"value\":{\"code\":\"%s\"}}", generatedCode);
     }
@@ -63,69 +100,88 @@ public class ProcessingCenter implements Processing {
             logger.error("Bank Code is empty! Create Account will interrupted!");
             return "{}";
         }
+        // a single INSERT into one bank database, it commits locally without XA
         try {
-            utx.begin();
             Bank bank = banks.get(bankCode);
             String iban = bank.createAccount();
-            utx.commit();
-            logger.info("Account [{}] is created!", getIbanFromResponse(iban));
+            if (logger.isDebugEnabled()) {
+                logger.debug("Account [{}] is created!", getIbanFromResponse(iban));
+            }
             return iban;
         } catch (Exception e) {
-            try {
-                utx.rollback();
-            } catch (SystemException se) {
-                logger.error(se.getMessage(), se);
-            }
             logger.error("Account creating at Bank [{}] is failed: {}", bankCode, e.getMessage());
         }
         return "{}";
     }
 
     @Override
-    public void addMoneyToAccount(String iban, BigDecimal value) {
+    public boolean addMoneyToAccount(String iban, BigDecimal value) {
         if (iban == null || value.compareTo(BigDecimal.valueOf(0.0)) <= 0) {
             logger.error("Wrong input data! Add Money to Account will interrupted!");
-            return;
+            return false;
         }
+        // a single UPDATE in one bank database, it commits locally without XA
         try {
-            utx.begin();
             String bankCode = iban.split("_")[0];
             Bank bank = banks.get(bankCode);
-            bank.deposit(iban, value);
-            utx.commit();
-            logger.info("Adding [{}] to Account [{}] is OK!", value, iban);
-        } catch (Exception e) {
-            try {
-                utx.rollback();
-            } catch (SystemException se) {
-                logger.error(se.getMessage(), se);
+            boolean deposited = bank.deposit(iban, value);
+            audit(AuditLog.DEPOSIT, deposited, null, iban, value);
+            if (deposited) {
+                logger.debug("Adding [{}] to Account [{}] is OK!", value, iban);
+            } else {
+                logger.error("Account [{}] is unknown! Add Money to Account will interrupted!", iban);
             }
+            return deposited;
+        } catch (Exception e) {
+            audit(AuditLog.DEPOSIT, false, null, iban, value);
             logger.error("Adding [{}] to Account [{}] is failed: {}", value, iban, e.getMessage());
         }
+        return false;
     }
 
     @Override
-    public void transferMoney(String sourceIban, String targetIban, BigDecimal value) {
+    public boolean transferMoney(String sourceIban, String targetIban, BigDecimal value) {
         if (sourceIban == null || targetIban == null || value.compareTo(BigDecimal.valueOf(0.0)) <= 0) {
             logger.error("Wrong input data! Transfer Money will interrupted!");
-            return;
+            return false;
         }
         if (sourceIban.equals(targetIban)) {
             logger.error("Source and Target Accounts are the same! Transfer Money will interrupted!");
-            return;
+            return false;
+        }
+        String sourceBankCode = sourceIban.split("_")[0];
+        String targetBankCode = targetIban.split("_")[0];
+        if (sourceBankCode.equals(targetBankCode)) {
+            return transferMoneyInBank(sourceBankCode, sourceIban, targetIban, value);
+        }
+        InterbankNetting nettingMode = netting;
+        if (nettingMode != null && nettingMode.enter()) {
+            try {
+                return transferMoneyNetted(nettingMode, sourceBankCode, targetBankCode, sourceIban, targetIban, value);
+            } finally {
+                nettingMode.exit();
+            }
         }
         try {
-            utx.begin();
-            String sourceBankCode = sourceIban.split("_")[0];
-            String targetBankCode = targetIban.split("_")[0];
+            begin();
             Bank sourceBank = banks.get(sourceBankCode);
             Bank targetBank = banks.get(targetBankCode);
-            if (sourceBank.withdraw(sourceIban, value)) {
-                targetBank.deposit(targetIban, value);
+            boolean transferred = sourceBank.withdraw(sourceIban, value) && targetBank.deposit(targetIban, value);
+            if (transferred) {
+                commit();
+            } else {
+                // the money of a debit to an unknown target goes back with the rollback
+                utx.rollback();
+            }
+            audit(AuditLog.TRANSFER, transferred, sourceIban, targetIban, value);
+            if (!transferred) {
+                logger.error("Transfer [{}] from [{}] to [{}] is declined!", value, sourceIban, targetIban);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Transfer [{}] from [{}] to [{}] is OK!", value, sourceIban, targetIban);
             }
-            utx.commit();
-            logger.info("Transfer [{}] from [{}] to [{}] is OK!", value, sourceIban, targetIban);
+            return transferred;
         } catch (Exception e) {
+            audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
             try {
                 utx.rollback();
             } catch (SystemException se) {
@@ -133,6 +189,226 @@ public class ProcessingCenter implements Processing {
             }
             logger.error("Transfer [{}] from [{}] to [{}] is failed: {}", value, sourceIban, targetIban, e.getMessage());
         }
+        return false;
+    }
+
+    /**
+     * Transfer between two accounts of the same bank: both UPDATEs go in one batch of one local transaction
+     * of its database, without XA prepare and transaction log writes.
+     */
+    private boolean transferMoneyInBank(String bankCode, String sourceIban, String targetIban, BigDecimal value) {
+        try {
+            Bank bank = banks.get(bankCode);
+            DatabaseManager.TransferResult result = bank.transfer(sourceIban, targetIban, value);
+            boolean transferred = result == DatabaseManager.TransferResult.COMPLETED;
+            audit(AuditLog.TRANSFER, transferred, sourceIban, targetIban, value);
+            if (!transferred) {
+                logger.error("Transfer [{}] from [{}] to [{}] is declined: {}!", value, sourceIban, targetIban, result);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Transfer [{}] from [{}] to [{}] is OK!", value, sourceIban, targetIban);
+            }
+            return transferred;
+        } catch (Exception e) {
+            audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
+            logger.error("Transfer [{}] from [{}] to [{}] is failed: {}", value, sourceIban, targetIban, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Cross-bank transfer as two local transactions: the source account pays into the clearing account
+     * of the source bank for the target bank, and the clearing account of the target bank for the source bank
+     * pays to the target account. The clearing accounts are evened out by the periodic net settlement.
+     * If the target leg fails the source leg is refunded.
+     */
+    private boolean transferMoneyNetted(InterbankNetting nettingMode, String sourceBankCode, String targetBankCode,
+                                     String sourceIban, String targetIban, BigDecimal value) {
+        Bank sourceBank = banks.get(sourceBankCode);
+        Bank targetBank = banks.get(targetBankCode);
+        if (sourceBank == null || targetBank == null) {
+            audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
+            logger.error("Source or Target Bank of transfer from [{}] to [{}] is wrong! Transfer Money will interrupted!",
+                    sourceIban, targetIban);
+            return false;
+        }
+        String sourceClearing;
+        try {
+            sourceClearing = sourceBank.clearingAccount(targetBankCode);
+            DatabaseManager.TransferResult result = sourceBank.transfer(sourceIban, sourceClearing, value);
+            if (result != DatabaseManager.TransferResult.COMPLETED) {
+                audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
+                logger.error("Transfer [{}] from [{}] to [{}] is declined: {}!", value, sourceIban, targetIban, result);
+                return false;
+            }
+        } catch (Exception e) {
+            audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
+            logger.error("Transfer [{}] from [{}] to [{}] is failed: {}", value, sourceIban, targetIban, e.getMessage());
+            return false;
+        }
+        boolean deposited;
+        try {
+            deposited = targetBank.transferFromClearing(targetBank.clearingAccount(sourceBankCode), targetIban, value);
+        } catch (Exception e) {
+            logger.error("Transfer [{}] from [{}] to [{}] is failed: {}", value, sourceIban, targetIban, e.getMessage());
+            deposited = false;
+        }
+        if (!deposited) {
+            try {
+                sourceBank.transferFromClearing(sourceClearing, sourceIban, value);
+            } catch (Exception e) {
+                logger.error("Refund [{}] from [{}] to [{}] is failed: {}", value, sourceClearing, sourceIban, e.getMessage());
+            }
+            audit(AuditLog.TRANSFER, false, sourceIban, targetIban, value);
+            return false;
+        }
+        nettingMode.record(sourceBankCode, targetBankCode);
+        audit(AuditLog.TRANSFER, true, sourceIban, targetIban, value);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Transfer [{}] from [{}] to [{}] is OK!", value, sourceIban, targetIban);
+        }
+        return true;
+    }
+
+    /**
+     * Pays the balance of the clearing account of the first bank for the second one, the net amount it owes,
+     * to the clearing account of the second bank for the first one in one XA transaction over both databases.
+     * Transfers committed meanwhile stay on the clearing accounts for the next settlement.
+     */
+    private boolean settle(String firstCode, String secondCode) {
+        Bank first = banks.get(firstCode);
+        Bank second = banks.get(secondCode);
+        if (first == null || second == null || firstCode.equals(secondCode)) {
+            return true;
+        }
+        synchronized (settlementLock) {
+            BigDecimal net;
+            String firstClearing;
+            String secondClearing;
+            try {
+                net = first.clearingBalance(secondCode);
+                if (net == null) {
+                    BigDecimal owed = second.clearingBalance(firstCode);
+                    net = owed != null ? owed.negate() : null;
+                }
+                if (net == null || net.signum() == 0) {
+                    return true;
+                }
+                firstClearing = first.clearingAccount(secondCode);
+                secondClearing = second.clearingAccount(firstCode);
+            } catch (SQLException e) {
+                logger.error("Reading position of [{}] and [{}] is failed: {}", firstCode, secondCode, e.getMessage());
+                return false;
+            }
+            try {
+                begin();
+                if (!first.deposit(firstClearing, net.negate()) || !second.deposit(secondClearing, net)) {
+                    throw new IllegalStateException("Clearing account is deleted");
+                }
+                commit();
+                logger.debug("Net position [{}] of [{}] to [{}] is settled!", net, firstCode, secondCode);
+                return true;
+            } catch (Exception e) {
+                try {
+                    utx.rollback();
+                } catch (SystemException se) {
+                    logger.error(se.getMessage(), se);
+                }
+                logger.error("Settlement [{}] of [{}] to [{}] is failed: {}", net, firstCode, secondCode, e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Settles the positions of the bank with every other bank, e.g. before its clearing accounts are deleted.
+     */
+    private boolean settleBank(String bankCode) {
+        boolean settled = true;
+        for (String counterpartyCode : banks.keySet()) {
+            settled &= settle(bankCode, counterpartyCode);
+        }
+        return settled;
+    }
+
+    @Override
+    public List<Boolean> transferMoneyBatch(List<Transfer> transfers) {
+        Boolean[] results = new Boolean[transfers.size()];
+        Arrays.fill(results, Boolean.FALSE);
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            String sourceIban = transfer.getSourceIban();
+            String targetIban = transfer.getTargetIban();
+            if (sourceIban == null || targetIban == null || transfer.getValue() == null
+                    || transfer.getValue().compareTo(BigDecimal.valueOf(0.0)) <= 0 || sourceIban.equals(targetIban)) {
+                logger.error("Wrong input data for transfer [{}] of the batch!", i);
+                continue;
+            }
+            String groupKey = sourceIban.split("_")[0] + "->" + targetIban.split("_")[0];
+            groups.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(i);
+        }
+
+        groups.forEach((groupKey, indexes) -> {
+            for (int from = 0; from < indexes.size(); from += MAX_TRANSFERS_PER_TRANSACTION) {
+                List<Integer> chunk = indexes.subList(from, Math.min(indexes.size(), from + MAX_TRANSFERS_PER_TRANSACTION));
+                transferMoneyGroup(groupKey, transfers, chunk, results);
+            }
+        });
+        for (int i = 0; i < results.length; i++) {
+            Transfer transfer = transfers.get(i);
+            audit(AuditLog.TRANSFER, results[i], transfer.getSourceIban(), transfer.getTargetIban(), transfer.getValue());
+        }
+        logger.debug("Transfer batch of [{}] transfers in [{}] groups is processed!", transfers.size(), groups.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Runs one group of transfers between the same pair of banks in one XA transaction:
+     * a debit batch on the source bank, a credit batch on the target bank and a refund batch for unknown targets.
+     */
+    private void transferMoneyGroup(String groupKey, List<Transfer> transfers, List<Integer> indexes, Boolean[] results) {
+        List<Transfer> group = new ArrayList<>(indexes.size());
+        indexes.forEach(i -> group.add(transfers.get(i)));
+        Bank sourceBank = banks.get(group.get(0).getSourceIban().split("_")[0]);
+        Bank targetBank = banks.get(group.get(0).getTargetIban().split("_")[0]);
+        if (sourceBank == null || targetBank == null) {
+            logger.error("Source or Target Bank of group [{}] is wrong! Transfers will interrupted!", groupKey);
+            return;
+        }
+        try {
+            begin();
+            boolean[] withdrawn = sourceBank.withdrawBatch(group);
+            List<Integer> withdrawnPositions = new ArrayList<>();
+            List<Transfer> credits = new ArrayList<>();
+            for (int i = 0; i < withdrawn.length; i++) {
+                if (withdrawn[i]) {
+                    withdrawnPositions.add(i);
+                    credits.add(group.get(i));
+                }
+            }
+            boolean[] deposited = credits.isEmpty() ? new boolean[0] : targetBank.depositBatch(credits);
+            List<Transfer> refunds = new ArrayList<>();
+            for (int i = 0; i < deposited.length; i++) {
+                if (deposited[i]) {
+                    results[indexes.get(withdrawnPositions.get(i))] = Boolean.TRUE;
+                } else {
+                    refunds.add(credits.get(i).reversed());
+                }
+            }
+            if (!refunds.isEmpty()) {
+                sourceBank.depositBatch(refunds);
+            }
+            commit();
+        } catch (Exception e) {
+            indexes.forEach(i -> results[i] = Boolean.FALSE);
+            try {
+                utx.rollback();
+            } catch (SystemException se) {
+                logger.error(se.getMessage(), se);
+            }
+            logger.error("Transfer group [{}] of [{}] transfers is failed: {}", groupKey, indexes.size(), e.getMessage());
+        }
     }
 
     @Override
@@ -141,35 +417,49 @@ public class ProcessingCenter implements Processing {
             logger.error("IBAN is empty! Get Account status will interrupted!");
             return "{}";
         }
+        // a read of one bank database, served from its status cache without XA and a pooled connection
         try {
-            utx.begin();
             String bankCode = iban.split("_")[0];
             Bank bank = banks.get(bankCode);
-            String status = bank.getAccountStatus(iban);
-            utx.commit();
-            return status;
+            return bank.getAccountStatus(iban);
         } catch (Exception e) {
-            try {
-                utx.rollback();
-            } catch (SystemException se) {
-                logger.error(se.getMessage(), se);
-            }
             logger.error("Getting account [{}] status is failed: {}", iban, e.getMessage());
         }
         return "{}";
     }
 
+    @Override
+    public String forEachAccount(String bankCode, String afterIban, int limit, BiConsumer<String, BigDecimal> action) {
+        Bank bank = bankCode != null ? banks.get(bankCode) : null;
+        if (bank == null) {
+            logger.error("Bank [{}] is unknown! Reading accounts will interrupted!", bankCode);
+            throw new IllegalArgumentException("Unknown bank " + bankCode);
+        }
+        // a read-only scan of one bank database, it does not need XA
+        try {
+            return bank.forEachAccount(afterIban, limit, action);
+        } catch (Exception e) {
+            logger.error("Reading accounts at Bank [{}] after [{}] is failed: {}", bankCode, afterIban, e.getMessage());
+            throw new IllegalStateException("Reading accounts at Bank " + bankCode + " is failed", e);
+        }
+    }
+
     @Override
     public void deleteAllAccounts(String bankCode) {
         if (bankCode == null) {
             logger.error("Bank Code is empty! Delete All Accounts will interrupted!");
             return;
         }
+        // the other banks would keep the positions with it on their clearing accounts
+        if (!settleBank(bankCode)) {
+            logger.error("Positions of Bank [{}] are not settled! Delete All Accounts will interrupted!", bankCode);
+            return;
+        }
         try {
-            utx.begin();
+            begin();
             Bank bank = banks.get(bankCode);
             bank.deleteAllAccounts();
-            utx.commit();
+            commit();
             logger.info("Deleting all accounts at Bank [{}] is OK!", bankCode);
         } catch (Exception e) {
             try {
@@ -181,28 +471,119 @@ public class ProcessingCenter implements Processing {
         }
     }
 
+    private void begin() throws NotSupportedException, SystemException {
+        long start = System.nanoTime();
+        utx.begin();
+        metrics.recordStage(Stages.JTA_BEGIN, start);
+    }
+
+    private void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException,
+            SystemException {
+        long start = System.nanoTime();
+        utx.commit();
+        metrics.recordStage(Stages.JTA_COMMIT, start);
+    }
+
     @Override
     public List<String> getAllBankCodes() {
         return new ArrayList<>(banks.keySet());
     }
 
+    /**
+     * Starts writing the deposits and transfers to binary audit files in the folder,
+     * keeping at most {@code maxFiles} files of {@code maxFileBytes}.
+     */
+    public void enableAudit(Path folder, long maxFileBytes, int maxFiles) throws IOException {
+        audit = new AuditLog(folder, AuditLog.DEFAULT_CAPACITY, maxFileBytes, maxFiles, Iban::parseAccountId);
+    }
+
+    /**
+     * Stops writing the audit files after the records taken so far are written.
+     */
+    public void disableAudit() {
+        AuditLog log = audit;
+        audit = null;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Switches cross-bank transfers to netting: customer legs commit locally against the clearing accounts,
+     * and the net positions between each pair of banks are settled every {@code intervalMillis}
+     * or {@code maxTransfers} transfers. Positions left on the clearing accounts, e.g. by a crash,
+     * are settled with the first window.
+     */
+    public synchronized void enableNetting(long intervalMillis, int maxTransfers) {
+        if (netting == null) {
+            InterbankNetting nettingMode = new InterbankNetting(intervalMillis, maxTransfers, this::settle);
+            for (String first : banks.keySet()) {
+                banks.keySet().forEach(second -> nettingMode.track(first, second));
+            }
+            netting = nettingMode;
+        }
+    }
+
+    /**
+     * Switches cross-bank transfers back to one XA transaction each. Netted transfers already running
+     * are completed and then the open positions are settled.
+     */
+    public synchronized void disableNetting() {
+        InterbankNetting nettingMode = netting;
+        netting = null;
+        if (nettingMode != null) {
+            nettingMode.close();
+        }
+    }
+
+    private void audit(int type, boolean completed, String sourceIban, String targetIban, BigDecimal value) {
+        AuditLog log = audit;
+        if (log == null) {
+            return;
+        }
+        long amount;
+        try {
+            amount = value != null ? value.movePointRight(2).longValueExact() : -1;
+        } catch (ArithmeticException e) {
+            amount = -1;
+        }
+        log.record(type, completed, sourceIban, targetIban, amount);
+    }
+
     @Override
     public void start() {
         logger.info("Processing Center is starting...");
-        this.rest = new SslRestServer(this);
-        rest.start();
+        this.rest = Vertx.vertx();
+        SslRestServer.deploy(rest, this, metrics,
+                Integer.getInteger("processing.rest.instances", Runtime.getRuntime().availableProcessors())).join();
+        this.binary = new BinaryServer(this, Integer.getInteger("processing.binary.port", BinaryServer.DEFAULT_PORT));
+        binary.start();
         logger.info("Processing Center is ready!");
     }
 
     @Override
     public void stop() {
-        rest.stop();
+        rest.close();
+        binary.stop();
+        disableNetting();
+        banks.values().forEach(Bank::close);
+        disableAudit();
         logger.info("Processing Center was stopped!");
         System.exit(0);
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         ProcessingCenter p = new ProcessingCenter();
+        String auditFolder = System.getProperty("processing.audit");
+        if (auditFolder != null) {
+            p.enableAudit(Paths.get(auditFolder),
+                    Long.getLong("processing.audit.maxFileMB", AuditLog.DEFAULT_MAX_FILE_BYTES >> 20) << 20,
+                    Integer.getInteger("processing.audit.files", AuditLog.DEFAULT_MAX_FILES));
+        }
+        if (Boolean.getBoolean("processing.netting")) {
+            p.enableNetting(Long.getLong("processing.netting.intervalMs", InterbankNetting.DEFAULT_INTERVAL_MILLIS),
+                    Integer.getInteger("processing.netting.transfers", InterbankNetting.DEFAULT_MAX_TRANSFERS));
+        }
         p.start();
 
         String code1 = p.getBankCodeFromResponse(p.createBank());
@@ -1,12 +1,23 @@
 package processing;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import common.IdempotencyWindow;
+import common.JsonCodec;
+import common.LatencyMetrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JdkSSLEngineOptions;
+import io.vertx.core.net.OpenSSLEngineOptions;
 import io.vertx.core.net.PemKeyCertOptions;
+import io.vertx.core.spi.VerticleFactory;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
@@ -15,23 +26,83 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-class SslRestServer {
+/**
+ * REST verticle of the processing center. Deployed in several instances, each one runs on its own event loop
+ * and Vert.x spreads the connections to the shared port between them. The instances share one worker pool,
+ * so its bound holds for the whole server.
+ */
+class SslRestServer extends AbstractVerticle {
     private static final Logger logger = LoggerFactory.getLogger(SslRestServer.class);
     private static final int SSL_WEB_PORT = 4201;
+    private static final String FACTORY_PREFIX = "processing-rest";
+    static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
 
     private final Processing processing;
-    private final Vertx vertx;
+    private final BlockingWorkers workers;
+    private final LatencyMetrics metrics;
+    private final HttpServerOptions httpServerOptions;
+    private final IdempotencyWindow idempotency;
 
-    SslRestServer(Processing processing) {
+    private SslRestServer(Processing processing, LatencyMetrics metrics, BlockingWorkers workers,
+                          HttpServerOptions httpServerOptions, IdempotencyWindow idempotency) {
         this.processing = processing;
-        this.vertx = Vertx.vertx();
+        this.metrics = metrics;
+        this.workers = workers;
+        this.httpServerOptions = httpServerOptions;
+        this.idempotency = idempotency;
     }
 
-    void start() {
+    /**
+     * Deploys {@code instances} REST servers sharing the processing, the metrics, the worker pool
+     * and the idempotency window.
+     *
+     * @return future completed when all instances listen on the port
+     */
+    static CompletableFuture<String> deploy(Vertx vertx, Processing processing, LatencyMetrics metrics, int instances) {
+        BlockingWorkers workers = new BlockingWorkers(vertx, "processing-worker",
+                BlockingWorkers.DEFAULT_POOL_SIZE, BlockingWorkers.DEFAULT_QUEUE_CAPACITY);
+        HttpServerOptions httpServerOptions = httpServerOptions(
+                Boolean.parseBoolean(System.getProperty("processing.http2", "false")),
+                Integer.getInteger("processing.http2.maxStreams", DEFAULT_MAX_CONCURRENT_STREAMS),
+                "openssl".equals(System.getProperty("processing.ssl.engine", "jdk")));
+        IdempotencyWindow idempotency = new IdempotencyWindow(
+                Integer.getInteger("processing.idempotency.capacity", IdempotencyWindow.DEFAULT_CAPACITY),
+                Long.getLong("processing.idempotency.ttl", IdempotencyWindow.DEFAULT_TTL_SECONDS));
+        vertx.registerVerticleFactory(new VerticleFactory() {
+            @Override
+            public String prefix() {
+                return FACTORY_PREFIX;
+            }
+
+            @Override
+            public Verticle createVerticle(String verticleName, ClassLoader classLoader) {
+                return new SslRestServer(processing, metrics, workers, httpServerOptions, idempotency);
+            }
+        });
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(FACTORY_PREFIX + ":" + SslRestServer.class.getName(),
+                new DeploymentOptions().setInstances(instances), result -> {
+                    if (result.succeeded()) {
+                        logger.info("REST Server is ready on SSL port [{}] in [{}] instances with {}!", SSL_WEB_PORT,
+                                instances, httpServerOptions.isUseAlpn() ? "HTTP/2 and HTTP/1.1" : "HTTP/1.1");
+                        deployed.complete(result.result());
+                    } else {
+                        deployed.completeExceptionally(result.cause());
+                    }
+                });
+        return deployed;
+    }
+
+    @Override
+    public void start(Future<Void> startFuture) {
         logger.info("REST Server is starting...");
         Router router = Router.router(vertx);
+        router.route().handler(this::recordLatency);
         router.route().handler(BodyHandler.create());
         router.route().handler(CorsHandler.create("*")
                 .allowedMethod(io.vertx.core.http.HttpMethod.GET)
@@ -47,42 +118,152 @@ class SslRestServer {
                 .allowedHeader("Content-Type")
                 .allowedHeader("Authorization"));
 
-        router.post("/account/deposit").handler(rc -> handlerWrapper(rc, this::addMoneyToAccount));
-        router.post("/account/transfer").handler(rc -> handlerWrapper(rc, this::transferMoney));
+        router.post("/account/deposit").handler(rc -> idempotentHandlerWrapper(rc, this::addMoneyToAccount));
+        router.post("/account/transfer").handler(rc -> idempotentHandlerWrapper(rc, this::transferMoney));
+        router.post("/account/transfer/batch").handler(rc -> blockingHandlerWrapper(rc, this::transferMoneyBatch));
+        router.get("/account/getAll").handler(this::getAllAccounts);
+        router.get("/workers").handler(rc -> handlerWrapper(rc, this::getWorkersStats));
+        router.get("/metrics").handler(this::getMetrics);
         router.get("/stop").handler(routingContext -> handlerWrapper(routingContext, this::stopProcessing));
 
-        HttpServerOptions httpServerOptions = new HttpServerOptions();
-        httpServerOptions
+        router.getRoutes().forEach(route -> {
+            if (route.getPath() != null) {
+                metrics.registerRoute(route.getPath());
+            }
+        });
+
+        vertx.createHttpServer(httpServerOptions)
+                .requestHandler(router::accept)
+                .listen(SSL_WEB_PORT, result -> {
+                    if (result.succeeded()) {
+                        startFuture.complete();
+                    } else {
+                        startFuture.fail(result.cause());
+                    }
+                });
+    }
+
+    /**
+     * TLS options of the REST server. Clients that reconnect resume their TLS session from the server session cache
+     * with an abbreviated handshake instead of a full one. With HTTP/2 negotiated by ALPN a client multiplexes
+     * up to {@code maxConcurrentStreams} requests over one connection, HTTP/1.1 clients are still served.
+     *
+     * @param openSsl use the OpenSSL engine of netty-tcnative, which also provides ALPN on Java 8,
+     *                instead of the JDK one
+     */
+    static HttpServerOptions httpServerOptions(boolean http2, int maxConcurrentStreams, boolean openSsl) {
+        HttpServerOptions options = new HttpServerOptions()
                 .setKeyCertOptions(new PemKeyCertOptions()
                         .setKeyPath("key.pem")
                         .setCertPath("cert.pem"))
                 .setSsl(true);
+        if (openSsl) {
+            options.setOpenSslEngineOptions(new OpenSSLEngineOptions().setSessionCacheEnabled(true));
+        } else {
+            // the JDK engine keeps its default server session cache
+            options.setJdkSslEngineOptions(new JdkSSLEngineOptions());
+        }
+        if (http2) {
+            options.setUseAlpn(true)
+                    .setAlpnVersions(Arrays.asList(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1))
+                    .setInitialSettings(new Http2Settings().setMaxConcurrentStreams(maxConcurrentStreams));
+        }
+        return options;
+    }
 
-        vertx.createHttpServer(httpServerOptions)
-                .requestHandler(router::accept)
-                .listen(SSL_WEB_PORT);
-        logger.info("REST Server is ready on SSL port [{}]!", SSL_WEB_PORT);
+    private void addMoneyToAccount(RoutingContext rc) {
+        JsonCodec.AccountRequest request = parseObject(rc);
+        if (request == null) {
+            return;
+        }
+        if (request.amount == null) {
+            rc.fail(400);
+            return;
+        }
+        processing.addMoneyToAccount(request.iban, request.amount);
+        responseOk(JsonCodec.EMPTY, rc);
+    }
+
+    private void transferMoney(RoutingContext rc) {
+        JsonCodec.AccountRequest request = parseObject(rc);
+        if (request == null) {
+            return;
+        }
+        if (request.amount == null) {
+            rc.fail(400);
+            return;
+        }
+        processing.transferMoney(request.sourceIban, request.targetIban, request.amount);
+        responseOk(JsonCodec.EMPTY, rc);
+    }
+
+    private void transferMoneyBatch(RoutingContext rc) {
+        List<JsonCodec.AccountRequest> requests;
+        try {
+            requests = JsonCodec.parseArray(rc.getBody());
+        } catch (IllegalArgumentException e) {
+            logger.error("Wrong batch request: {}", e.getMessage());
+            rc.fail(400);
+            return;
+        }
+        List<Transfer> transfers = new ArrayList<>(requests.size());
+        for (JsonCodec.AccountRequest transfer : requests) {
+            transfers.add(new Transfer(transfer.sourceIban, transfer.targetIban, transfer.amount));
+        }
+        List<Boolean> results = processing.transferMoneyBatch(transfers);
+        responseOk(JsonCodec.batchResult(requests, results), rc);
+    }
+
+    /**
+     * @return the request, or null if the body is malformed and the request is failed with 400
+     */
+    private JsonCodec.AccountRequest parseObject(RoutingContext rc) {
+        try {
+            return JsonCodec.parseObject(rc.getBody());
+        } catch (IllegalArgumentException e) {
+            logger.error("Wrong request [{}]: {}", rc.request().path(), e.getMessage());
+            rc.fail(400);
+            return null;
+        }
     }
 
-    private void addMoneyToAccount(RoutingContext rc) throws JsonProcessingException {
-        JsonObject requestBody = rc.getBodyAsJson();
-        String iban = requestBody.getString("iban");
-        BigDecimal value = BigDecimal.valueOf(requestBody.getDouble("amount"));
-        processing.addMoneyToAccount(iban, value);
-        responseOk(null, rc);
+    private void getAllAccounts(RoutingContext rc) {
+        String bankCode = rc.request().getParam("bank");
+        String after = rc.request().getParam("after");
+        String limit = rc.request().getParam("limit");
+        long maxAccounts;
+        try {
+            maxAccounts = limit != null ? Long.parseLong(limit) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            maxAccounts = 0;
+        }
+        if (bankCode == null || !processing.getAllBankCodes().contains(bankCode) || maxAccounts <= 0) {
+            logger.error("Wrong bank [{}] or limit [{}] for reading accounts!", bankCode, limit);
+            rc.fail(400);
+            return;
+        }
+        new AccountsStream(processing, vertx, workers, rc.response(), bankCode, after, maxAccounts).start();
     }
 
-    private void transferMoney(RoutingContext rc) throws JsonProcessingException {
-        JsonObject requestBody = rc.getBodyAsJson();
-        String sourceIban = requestBody.getString("sourceIban");
-        String targetIban = requestBody.getString("targetIban");
-        BigDecimal value = BigDecimal.valueOf(requestBody.getDouble("amount"));
-        processing.transferMoney(sourceIban,targetIban, value);
-        responseOk(null, rc);
+    /**
+     * Records the time from the request headers to the end of the response body under the route path.
+     */
+    private void recordLatency(RoutingContext rc) {
+        long start = System.nanoTime();
+        String path = rc.request().path();
+        rc.addBodyEndHandler(v -> metrics.recordRoute(path, start));
+        rc.next();
+    }
+
+    private void getMetrics(RoutingContext rc) {
+        rc.response()
+                .setStatusCode(200)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; version=0.0.4")
+                .end(metrics.toPrometheus());
     }
 
-    void stop() {
-        vertx.close();
+    private void getWorkersStats(RoutingContext rc) {
+        responseOk(new JsonObject().put("value", workers.stats()).toBuffer(), rc);
     }
 
     @SuppressWarnings("all")
@@ -99,21 +280,85 @@ class SslRestServer {
         }
     }
 
+    /**
+     * Runs the handler on the worker pool, the event loop only parses the request line and headers.
+     * When the worker queue is full the request is rejected with 503 and a Retry-After hint.
+     */
+    private void blockingHandlerWrapper(RoutingContext rc, CheckedConsumer<RoutingContext> handler) {
+        blockingHandlerWrapper(rc, () -> handlerWrapper(rc, handler), () -> { });
+    }
+
+    private void blockingHandlerWrapper(RoutingContext rc, Runnable task, Runnable onRejected) {
+        if (!workers.execute(task)) {
+            logger.warn("Worker queue is full! Request [{}] is rejected!", rc.request().path());
+            onRejected.run();
+            rc.response()
+                    .setStatusCode(503) // 503 Service Unavailable
+                    .putHeader("Retry-After", "1")
+                    .end();
+        }
+    }
+
+    /**
+     * Like {@link #blockingHandlerWrapper(RoutingContext, CheckedConsumer)}, but a request that repeats
+     * the {@link IdempotencyWindow#HEADER} of a recent one is answered on the event loop without a worker
+     * and without touching the banks: with the response of the earlier one, or with 409 and a Retry-After hint
+     * while the earlier one is still running. A key whose request failed or was rejected runs again on retry.
+     * A key that can not be tracked gets 503 with a Retry-After hint.
+     */
+    private void idempotentHandlerWrapper(RoutingContext rc, CheckedConsumer<RoutingContext> handler) {
+        String key = rc.request().getHeader(IdempotencyWindow.HEADER);
+        if (key == null) {
+            blockingHandlerWrapper(rc, handler);
+            return;
+        }
+        long fingerprint = IdempotencyWindow.fingerprint(key);
+        switch (idempotency.begin(fingerprint)) {
+            case IdempotencyWindow.COMPLETED:
+            case IdempotencyWindow.DECLINED:
+                logger.debug("Request [{}] with key [{}] is replayed!", rc.request().path(), key);
+                responseOk(JsonCodec.EMPTY, rc);
+                return;
+            case IdempotencyWindow.PENDING:
+                rc.response()
+                        .setStatusCode(409) // 409 Conflict
+                        .putHeader("Retry-After", "1")
+                        .end();
+                return;
+            case IdempotencyWindow.NEW:
+                blockingHandlerWrapper(rc, () -> {
+                    try {
+                        handlerWrapper(rc, handler);
+                    } catch (RuntimeException e) {
+                        idempotency.abandon(fingerprint);
+                        throw e;
+                    }
+                    if (rc.failed()) {
+                        idempotency.abandon(fingerprint);
+                    } else {
+                        idempotency.complete(fingerprint, true);
+                    }
+                }, () -> idempotency.abandon(fingerprint));
+                return;
+            default:
+                // the window is saturated, without the key a retry of the request could run twice
+                logger.warn("Request [{}] with key [{}] is not tracked!", rc.request().path(), key);
+                rc.response()
+                        .setStatusCode(503) // 503 Service Unavailable
+                        .putHeader("Retry-After", "1")
+                        .end();
+        }
+    }
+
     @FunctionalInterface
     interface CheckedConsumer<T> {
         void accept(T t) throws IOException;
     }
 
-    private void responseOk(Object obj, RoutingContext rc) throws JsonProcessingException {
-        String responseData;
-        if (obj == null) {
-            responseData = "{}";
-        } else {
-            responseData = obj instanceof String ? (String) obj : new ObjectMapper().writeValueAsString(obj);
-        }
+    private void responseOk(Buffer responseData, RoutingContext rc) {
         rc.response()
                 .setStatusCode(200) // 200 OK
                 .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
                 .end(responseData);
     }
-}
\ No newline at end of file
+}
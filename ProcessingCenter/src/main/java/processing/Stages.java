@@ -0,0 +1,22 @@
+package processing;
+
+import common.LatencyMetrics;
+
+/**
+ * Internal stages of an operation of the processing center, each one has its latency series.
+ */
+final class Stages {
+    static final String JTA_BEGIN = "jta_begin";
+    static final String JTA_COMMIT = "jta_commit";
+    static final String CONNECTION_BORROW = "connection_borrow";
+    static final String SQL_EXECUTE = "sql_execute";
+    static final String LOCAL_COMMIT = "local_commit";
+
+    private Stages() {
+    }
+
+    static LatencyMetrics metrics() {
+        return new LatencyMetrics("processing_stage_duration_seconds",
+                JTA_BEGIN, JTA_COMMIT, CONNECTION_BORROW, SQL_EXECUTE, LOCAL_COMMIT);
+    }
+}
@@ -0,0 +1,31 @@
+package processing;
+
+import java.math.BigDecimal;
+
+public class Transfer {
+    private final String sourceIban;
+    private final String targetIban;
+    private final BigDecimal value;
+
+    public Transfer(String sourceIban, String targetIban, BigDecimal value) {
+        this.sourceIban = sourceIban;
+        this.targetIban = targetIban;
+        this.value = value;
+    }
+
+    public String getSourceIban() {
+        return sourceIban;
+    }
+
+    public String getTargetIban() {
+        return targetIban;
+    }
+
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    Transfer reversed() {
+        return new Transfer(targetIban, sourceIban, value);
+    }
+}
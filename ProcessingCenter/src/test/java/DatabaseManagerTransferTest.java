@@ -0,0 +1,105 @@
+import com.atomikos.icatch.jta.UserTransactionManager;
+import common.LatencyMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import processing.DatabaseManager;
+import processing.DatabaseManager.TransferResult;
+import processing.H2XaDatabaseManager;
+import processing.MvStoreDatabaseManager;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+
+@RunWith(Parameterized.class)
+public class DatabaseManagerTransferTest {
+    private static final String BANK_CODE = "TR01";
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        return Arrays.asList(new Object[]{"h2"}, new Object[]{"mvstore"});
+    }
+
+    @Parameterized.Parameter
+    public String backend;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserTransactionManager tm;
+    private DatabaseManager db;
+
+    @Before
+    public void setUp() throws Exception {
+        String dbFolder = folder.getRoot().getPath();
+        if ("h2".equals(backend)) {
+            db = new H2XaDatabaseManager(BANK_CODE, dbFolder);
+        } else {
+            tm = new UserTransactionManager();
+            tm.init();
+            db = new MvStoreDatabaseManager(BANK_CODE, dbFolder, tm,
+                    new LatencyMetrics("test_stage_duration_seconds"));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        if (tm != null) {
+            tm.close();
+        }
+    }
+
+    @Test
+    public void completedTransferMovesMoneyTest() throws Exception {
+        String source = db.createAccount(BANK_CODE);
+        String target = db.createAccount(BANK_CODE);
+        db.deposit(source, new BigDecimal("100.00"));
+
+        Assert.assertEquals(TransferResult.COMPLETED, db.transfer(source, target, new BigDecimal("30.00")));
+
+        Assert.assertEquals(new BigDecimal("70.00"), db.balance(source));
+        Assert.assertEquals(new BigDecimal("30.00"), db.balance(target));
+    }
+
+    @Test
+    public void insufficientFundsLeavesBalancesTest() throws Exception {
+        String source = db.createAccount(BANK_CODE);
+        String target = db.createAccount(BANK_CODE);
+        db.deposit(source, new BigDecimal("10.00"));
+
+        Assert.assertEquals(TransferResult.INSUFFICIENT_FUNDS, db.transfer(source, target, new BigDecimal("10.01")));
+
+        Assert.assertEquals(new BigDecimal("10.00"), db.balance(source));
+        Assert.assertEquals(new BigDecimal("0.00"), db.balance(target));
+    }
+
+    @Test
+    public void unknownSourceIsInsufficientFundsTest() throws Exception {
+        String target = db.createAccount(BANK_CODE);
+        String unknown = BANK_CODE + "_99999999";
+
+        Assert.assertEquals(TransferResult.INSUFFICIENT_FUNDS, db.transfer(unknown, target, new BigDecimal("1.00")));
+
+        Assert.assertEquals(new BigDecimal("0.00"), db.balance(target));
+        Assert.assertNull(db.balance(unknown));
+    }
+
+    @Test
+    public void unknownTargetRollsBackDebitTest() throws Exception {
+        String source = db.createAccount(BANK_CODE);
+        String unknown = BANK_CODE + "_99999999";
+        db.deposit(source, new BigDecimal("100.00"));
+
+        Assert.assertEquals(TransferResult.UNKNOWN_TARGET, db.transfer(source, unknown, new BigDecimal("30.00")));
+
+        Assert.assertEquals(new BigDecimal("100.00"), db.balance(source));
+        Assert.assertNull(db.balance(unknown));
+    }
+}
@@ -0,0 +1,135 @@
+import com.atomikos.icatch.jta.UserTransactionManager;
+import common.LatencyMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import processing.MvStoreDatabaseManager;
+
+import javax.transaction.RollbackException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.math.BigDecimal;
+
+public class MvStoreDatabaseManagerTest {
+    private static final String BANK_CODE = "XA01";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserTransactionManager tm;
+    private MvStoreDatabaseManager db;
+
+    @Before
+    public void setUp() throws Exception {
+        tm = new UserTransactionManager();
+        tm.init();
+        db = new MvStoreDatabaseManager(BANK_CODE, folder.getRoot().getPath(), tm,
+                new LatencyMetrics("test_stage_duration_seconds"));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        tm.close();
+    }
+
+    @Test
+    public void failedPrepareOfOtherResourceRollsBackTest() throws Exception {
+        String source = db.createAccount(BANK_CODE);
+        String target = db.createAccount(BANK_CODE);
+        db.deposit(source, new BigDecimal("100.00"));
+
+        tm.begin();
+        Assert.assertTrue(db.withdraw(source, new BigDecimal("30.00")));
+        Assert.assertTrue(db.deposit(target, new BigDecimal("30.00")));
+        tm.getTransaction().enlistResource(new OtherResource(false));
+        try {
+            tm.commit();
+            Assert.fail("The transaction has to roll back");
+        } catch (RollbackException expected) {
+            // the other resource refused to prepare after the MVStore one was prepared
+        }
+
+        Assert.assertEquals(new BigDecimal("100.00"), db.balance(source));
+        Assert.assertEquals(new BigDecimal("0.00"), db.balance(target));
+    }
+
+    @Test
+    public void preparedWithOtherResourceCommitsTest() throws Exception {
+        String source = db.createAccount(BANK_CODE);
+        String target = db.createAccount(BANK_CODE);
+        db.deposit(source, new BigDecimal("100.00"));
+
+        tm.begin();
+        Assert.assertTrue(db.withdraw(source, new BigDecimal("30.00")));
+        Assert.assertTrue(db.deposit(target, new BigDecimal("30.00")));
+        tm.getTransaction().enlistResource(new OtherResource(true));
+        tm.commit();
+
+        Assert.assertEquals(new BigDecimal("70.00"), db.balance(source));
+        Assert.assertEquals(new BigDecimal("30.00"), db.balance(target));
+    }
+
+    /**
+     * A second resource of the transaction, like the H2 database of another bank.
+     */
+    private static final class OtherResource implements XAResource {
+        private final boolean prepares;
+
+        OtherResource(boolean prepares) {
+            this.prepares = prepares;
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            if (!prepares) {
+                throw new XAException(XAException.XA_RBROLLBACK);
+            }
+            return XA_OK;
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) {
+        }
+
+        @Override
+        public void rollback(Xid xid) {
+        }
+
+        @Override
+        public void start(Xid xid, int flags) {
+        }
+
+        @Override
+        public void end(Xid xid, int flags) {
+        }
+
+        @Override
+        public void forget(Xid xid) {
+        }
+
+        @Override
+        public Xid[] recover(int flag) {
+            return new Xid[0];
+        }
+
+        @Override
+        public boolean isSameRM(XAResource other) {
+            return other == this;
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) {
+            return false;
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import common.AuditLog;
 import io.vertx.core.json.JsonObject;
 import org.junit.*;
 import processing.ProcessingCenter;
@@ -7,12 +8,17 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class SslRestServerTest {
@@ -113,4 +119,277 @@ public class SslRestServerTest {
 
         Assert.assertEquals(BigDecimal.valueOf(23.58).setScale(2, BigDecimal.ROUND_HALF_UP), targetAccountAmount);
     }
+
+    @Test
+    public void transferMoneyBetweenBanksNettedTest() {
+        String firstBankCode = p.getBankCodeFromResponse(p.createBank());
+        String firstIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        p.addMoneyToAccount(firstIban, BigDecimal.valueOf(100.00));
+        String secondBankCode = p.getBankCodeFromResponse(p.createBank());
+        String secondIban = p.getIbanFromResponse(p.createAccount(secondBankCode));
+        p.addMoneyToAccount(secondIban, BigDecimal.valueOf(10.00));
+
+        p.enableNetting(60_000, 1_000);
+        try {
+            p.transferMoney(firstIban, secondIban, BigDecimal.valueOf(30.00));
+            p.transferMoney(secondIban, firstIban, BigDecimal.valueOf(5.50));
+            p.transferMoney(firstIban, secondIban, BigDecimal.valueOf(1_000.00));
+            p.transferMoney(firstIban, secondBankCode + "_99999999", BigDecimal.valueOf(1.00));
+
+            Assert.assertEquals(new BigDecimal("75.50"), amountOf(firstIban));
+            Assert.assertEquals(new BigDecimal("34.50"), amountOf(secondIban));
+            Assert.assertEquals(new BigDecimal("24.50"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+            Assert.assertEquals(new BigDecimal("-24.50"), amountOf(secondBankCode + "_CLEARING_" + firstBankCode));
+        } finally {
+            p.disableNetting();
+        }
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(secondBankCode + "_CLEARING_" + firstBankCode));
+    }
+
+    @Test
+    public void deleteAccountsWithOpenPositionTest() {
+        String firstBankCode = p.getBankCodeFromResponse(p.createBank());
+        String firstIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        p.addMoneyToAccount(firstIban, BigDecimal.valueOf(100.00));
+        String secondBankCode = p.getBankCodeFromResponse(p.createBank());
+        String secondIban = p.getIbanFromResponse(p.createAccount(secondBankCode));
+
+        p.enableNetting(60_000, 1_000);
+        try {
+            p.transferMoney(firstIban, secondIban, BigDecimal.valueOf(30.00));
+            Assert.assertEquals(new BigDecimal("30.00"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+
+            p.deleteAllAccounts(secondBankCode);
+
+            Assert.assertEquals(new BigDecimal("0.00"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+            Assert.assertEquals(new BigDecimal("70.00"), amountOf(firstIban));
+        } finally {
+            p.disableNetting();
+        }
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+    }
+
+    @Test
+    public void disableNettingUnderLoadTest() throws InterruptedException {
+        String firstBankCode = p.getBankCodeFromResponse(p.createBank());
+        String firstIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        p.addMoneyToAccount(firstIban, BigDecimal.valueOf(1_000.00));
+        String secondBankCode = p.getBankCodeFromResponse(p.createBank());
+        String secondIban = p.getIbanFromResponse(p.createAccount(secondBankCode));
+        p.addMoneyToAccount(secondIban, BigDecimal.valueOf(1_000.00));
+
+        p.enableNetting(60_000, 50);
+        p.transferMoney(firstIban, secondIban, BigDecimal.valueOf(1.00));
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            boolean forward = i % 2 == 0;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 200; j++) {
+                    if (forward) {
+                        p.transferMoney(firstIban, secondIban, BigDecimal.valueOf(1.00));
+                    } else {
+                        p.transferMoney(secondIban, firstIban, BigDecimal.valueOf(2.00));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        p.disableNetting();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(new BigDecimal("2000.00"), amountOf(firstIban).add(amountOf(secondIban)));
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(firstBankCode + "_CLEARING_" + secondBankCode));
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(secondBankCode + "_CLEARING_" + firstBankCode));
+    }
+
+    @Test
+    public void auditRecordsBankAndAccountNumbersTest() throws IOException {
+        Path auditFolder = Files.createTempDirectory("audit");
+        String bankCode = p.getBankCodeFromResponse(p.createBank());
+        String iban = p.getIbanFromResponse(p.createAccount(bankCode));
+        p.enableAudit(auditFolder, 1L << 20, 10);
+        try {
+            p.addMoneyToAccount(iban, BigDecimal.valueOf(12.34));
+            p.transferMoney(iban, "OTHER_1", BigDecimal.valueOf(1.00));
+        } finally {
+            p.disableAudit();
+        }
+
+        // BANK07_00000042 is 7 << 40 | 42
+        long accountId = Long.parseLong(bankCode.substring("BANK".length())) << 40
+                | Long.parseLong(iban.substring(iban.indexOf('_') + 1));
+        List<long[]> records = new ArrayList<>();
+        for (Path file : AuditLog.files(auditFolder)) {
+            AuditLog.read(file, (time, type, result, source, target, amount) ->
+                    records.add(new long[]{type, result, source, target, amount}));
+        }
+        deleteDbFolder(auditFolder);
+        Assert.assertEquals(2, records.size());
+        Assert.assertArrayEquals(new long[]{AuditLog.DEPOSIT, AuditLog.COMPLETED, -1, accountId, 1_234}, records.get(0));
+        Assert.assertArrayEquals(new long[]{AuditLog.TRANSFER, AuditLog.DECLINED, accountId, -1, 100}, records.get(1));
+    }
+
+    @Test
+    public void mvStoreBankTest() {
+        String sqlBankCode = p.getBankCodeFromResponse(p.createBank());
+        String sqlIban = p.getIbanFromResponse(p.createAccount(sqlBankCode));
+        System.setProperty("processing.db", "mvstore");
+        String bankCode;
+        try {
+            bankCode = p.getBankCodeFromResponse(p.createBank());
+        } finally {
+            System.clearProperty("processing.db");
+        }
+        String sourceIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        String targetIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        p.addMoneyToAccount(sourceIban, BigDecimal.valueOf(50.00));
+
+        p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(12.25));
+        p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(1_000.00));
+        p.transferMoney(sourceIban, sqlIban, BigDecimal.valueOf(7.75));
+
+        Assert.assertEquals(new BigDecimal("30.00"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("12.25"), amountOf(targetIban));
+        Assert.assertEquals(new BigDecimal("7.75"), amountOf(sqlIban));
+    }
+
+    @Test
+    public void depositAndTransferReportResultTest() {
+        String sourceBankCode = p.getBankCodeFromResponse(p.createBank());
+        String targetBankCode = p.getBankCodeFromResponse(p.createBank());
+        String sourceIban = p.getIbanFromResponse(p.createAccount(sourceBankCode));
+        String targetIban = p.getIbanFromResponse(p.createAccount(targetBankCode));
+
+        Assert.assertTrue(p.addMoneyToAccount(sourceIban, BigDecimal.valueOf(20.00)));
+        Assert.assertFalse(p.addMoneyToAccount(sourceBankCode + "_99999999", BigDecimal.valueOf(1.00)));
+        Assert.assertTrue(p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(5.00)));
+        Assert.assertFalse(p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(1_000.00)));
+        // the debit is rolled back with the credit to an unknown account
+        Assert.assertFalse(p.transferMoney(sourceIban, targetBankCode + "_99999999", BigDecimal.valueOf(1.00)));
+
+        Assert.assertEquals(new BigDecimal("15.00"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("5.00"), amountOf(targetIban));
+    }
+
+    @Test
+    public void transferMoneySameBankTest() {
+        String bankCode = p.getBankCodeFromResponse(p.createBank());
+        String sourceIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        String targetIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        p.addMoneyToAccount(sourceIban, BigDecimal.valueOf(50.00));
+
+        given().relaxedHTTPSValidation()
+                .contentType("application/json")
+                .body(transfer(sourceIban, targetIban, 12.25))
+                .when()
+                .post("https://localhost:4201/account/transfer")
+                .then()
+                .statusCode(200);
+        p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(1_000.00));
+        p.transferMoney(sourceIban, bankCode + "_99999999", BigDecimal.valueOf(1.00));
+
+        Assert.assertEquals(new BigDecimal("37.75"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("12.25"), amountOf(targetIban));
+    }
+
+    @Test
+    public void transferMoneyBatchTest() {
+        String firstBankCode = p.getBankCodeFromResponse(p.createBank());
+        String sourceIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        String sameBankIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        p.addMoneyToAccount(sourceIban, BigDecimal.valueOf(100.00));
+
+        String secondBankCode = p.getBankCodeFromResponse(p.createBank());
+        String otherBankIban = p.getIbanFromResponse(p.createAccount(secondBankCode));
+
+        List<HashMap<String, Object>> transfers = Arrays.asList(
+                transfer(sourceIban, sameBankIban, 10.00),
+                transfer(sourceIban, otherBankIban, 20.00),
+                transfer(sameBankIban, otherBankIban, 500.00),
+                transfer(sourceIban, "BANK99_00000001", 1.00));
+
+        given().relaxedHTTPSValidation()
+                .contentType("application/json")
+                .body(transfers)
+                .when()
+                .post("https://localhost:4201/account/transfer/batch")
+                .then()
+                .statusCode(200)
+                .body("value.completed", contains(true, true, false, false));
+
+        Assert.assertEquals(new BigDecimal("70.00"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("10.00"), amountOf(sameBankIban));
+        Assert.assertEquals(new BigDecimal("20.00"), amountOf(otherBankIban));
+    }
+
+    @Test
+    public void accountStatusFollowsCommittedWritesTest() {
+        String firstBankCode = p.getBankCodeFromResponse(p.createBank());
+        String sourceIban = p.getIbanFromResponse(p.createAccount(firstBankCode));
+        String secondBankCode = p.getBankCodeFromResponse(p.createBank());
+        String targetIban = p.getIbanFromResponse(p.createAccount(secondBankCode));
+
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("0.00"), amountOf(targetIban));
+
+        p.addMoneyToAccount(sourceIban, BigDecimal.valueOf(30.00));
+        Assert.assertEquals(new BigDecimal("30.00"), amountOf(sourceIban));
+
+        p.transferMoney(sourceIban, targetIban, BigDecimal.valueOf(7.50));
+        Assert.assertEquals(new BigDecimal("22.50"), amountOf(sourceIban));
+        Assert.assertEquals(new BigDecimal("7.50"), amountOf(targetIban));
+    }
+
+    @Test
+    public void getAllAccountsPaginatedTest() {
+        String bankCode = p.getBankCodeFromResponse(p.createBank());
+        String firstIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        String secondIban = p.getIbanFromResponse(p.createAccount(bankCode));
+        String thirdIban = p.getIbanFromResponse(p.createAccount(bankCode));
+
+        given().relaxedHTTPSValidation()
+                .when()
+                .get("https://localhost:4201/account/getAll?bank=" + bankCode + "&limit=2")
+                .then()
+                .statusCode(200)
+                .body("value.iban", contains(firstIban, secondIban))
+                .body("'@odata.nextLink'", containsString("after=" + secondIban));
+
+        given().relaxedHTTPSValidation()
+                .when()
+                .get("https://localhost:4201/account/getAll?bank=" + bankCode + "&after=" + secondIban)
+                .then()
+                .statusCode(200)
+                .body("value.iban", contains(thirdIban))
+                .body("'@odata.count'", equalTo(1))
+                .body("'@odata.nextLink'", nullValue());
+    }
+
+    @Test
+    public void workersStatsTest() {
+        given().relaxedHTTPSValidation()
+                .when()
+                .get("https://localhost:4201/workers")
+                .then()
+                .statusCode(200)
+                .body("value.queueDepth", equalTo(0))
+                .body("value.queueCapacity", equalTo(512));
+    }
+
+    private static HashMap<String, Object> transfer(String sourceIban, String targetIban, double amount) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("sourceIban", sourceIban);
+        map.put("targetIban", targetIban);
+        map.put("amount", amount);
+        return map;
+    }
+
+    private static BigDecimal amountOf(String iban) {
+        JsonObject account = new JsonObject(p.getAccountStatus(iban)).getJsonObject("value");
+        return new BigDecimal(account.getString("amount"));
+    }
 }
@@ -10,17 +10,19 @@ public class Account implements BankAccount {
         this.amountRef.set(BigDecimal.valueOf(0.00));
     }
 
+    /**
+     * The balance is checked on every attempt, a concurrent withdrawal may have taken it since the last one.
+     */
     @Override
     public boolean withdraw(BigDecimal value) {
-        BigDecimal amount = amountRef.get();
-        if (amount.compareTo(value) >= 0) {
-            for (;;) {
-                amount = amountRef.get();
-                if (amountRef.compareAndSet(amount, amount.subtract(value)))
-                    return true;
+        for (;;) {
+            BigDecimal amount = amountRef.get();
+            if (amount.compareTo(value) < 0) {
+                return false;
             }
+            if (amountRef.compareAndSet(amount, amount.subtract(value)))
+                return true;
         }
-        return false;
     }
 
     @Override
@@ -0,0 +1,26 @@
+package simple.bank;
+
+import java.math.BigDecimal;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage of the account balances by IBAN.
+ * Methods operating on an unknown IBAN are ignored ({@code withdraw} returns false, {@code status} returns null).
+ */
+public interface AccountStore {
+    void open(String iban);
+    boolean contains(String iban);
+    boolean withdraw(String iban, BigDecimal value);
+    void deposit(String iban, BigDecimal value);
+    BigDecimal status(String iban);
+    int size();
+    void forEach(BiConsumer<String, BigDecimal> action);
+
+    /**
+     * Visits up to {@code limit} accounts with an account number above {@code afterNumber}, in account number order.
+     *
+     * @return the account number of the last visited account if the limit was reached, -1 if there are no more accounts
+     */
+    long forEachAfter(long afterNumber, int limit, BiConsumer<String, BigDecimal> action);
+    void clear();
+}
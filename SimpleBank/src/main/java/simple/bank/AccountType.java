@@ -0,0 +1,18 @@
+package simple.bank;
+
+public enum AccountType {
+    BIG_DECIMAL {
+        @Override
+        public BankAccount create() {
+            return new Account();
+        }
+    },
+    FIXED_POINT {
+        @Override
+        public BankAccount create() {
+            return new FixedPointAccount();
+        }
+    };
+
+    public abstract BankAccount create();
+}
@@ -0,0 +1,76 @@
+package simple.bank;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Writes the account listing as a chunked JSON response, one page of accounts per event loop turn.
+ * While the response write queue is full no page is read, the stream continues from the drain handler.
+ */
+final class AccountsStream {
+    static final int PAGE_SIZE = 1_000;
+
+    private final Bank bank;
+    private final Vertx vertx;
+    private final HttpServerResponse response;
+    private final long limit;
+    private String cursor;
+    private long written;
+    private boolean closed;
+
+    AccountsStream(Bank bank, Vertx vertx, HttpServerResponse response, String afterIban, long limit) {
+        this.bank = bank;
+        this.vertx = vertx;
+        this.response = response;
+        this.cursor = afterIban;
+        this.limit = limit;
+    }
+
+    void start() {
+        response.setChunked(true)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                .closeHandler(v -> closed = true);
+        response.write("{\"value\":[");
+        writeNextPage();
+    }
+
+    private void writeNextPage() {
+        if (closed) {
+            return;
+        }
+        Buffer chunk = Buffer.buffer();
+        int pageSize = (int) Math.min(PAGE_SIZE, limit - written);
+        String last = bank.forEachAccount(cursor, pageSize, (iban, amount) -> {
+            if (written++ > 0) {
+                chunk.appendString(",");
+            }
+            chunk.appendString("{\"iban\":\"").appendString(iban)
+                    .appendString("\",\"amount\":\"").appendString(amount.toString()).appendString("\"}");
+        });
+        response.write(chunk);
+        if (last == null || written >= limit) {
+            finish(last);
+            return;
+        }
+        cursor = last;
+        if (response.writeQueueFull()) {
+            response.drainHandler(v -> {
+                response.drainHandler(null);
+                writeNextPage();
+            });
+        } else {
+            vertx.runOnContext(v -> writeNextPage());
+        }
+    }
+
+    private void finish(String last) {
+        StringBuilder tail = new StringBuilder("], \"@odata.count\":").append(written);
+        if (last != null) {
+            tail.append(", \"@odata.nextLink\":\"/account/getAll?after=").append(last)
+                    .append("&limit=").append(limit).append('"');
+        }
+        response.end(tail.append('}').toString());
+    }
+}
@@ -0,0 +1,156 @@
+package simple.bank;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Balances of all accounts as of a journal position, in a file of one long of minor units per account number.
+ * <p>
+ * A new snapshot is the previous one with the journal records after its position applied to a mapped copy,
+ * so it is consistent at the new position and is written without reading or locking the live accounts.
+ * <p>
+ * File layout: long journal position, long number of slots, then the slots indexed by account number,
+ * {@link Long#MIN_VALUE} in a slot marks a number without an account.
+ */
+final class BalanceSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceSnapshot.class);
+    private static final long ABSENT = Long.MIN_VALUE;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHUNK_SLOTS = 1 << 20;
+
+    private BalanceSnapshot() {
+    }
+
+    /**
+     * Opens the accounts of the snapshot in the store, chunks of the file are parsed in parallel.
+     *
+     * @return journal position the snapshot covers, 0 if there is no snapshot
+     */
+    static long load(Path file, AccountStore accounts, AtomicLong lastAccountNumber) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long position = buffer.getLong(0);
+            long slots = buffer.getLong(8);
+            int chunks = (int) ((slots + CHUNK_SLOTS - 1) / CHUNK_SLOTS);
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                long first = (long) chunk * CHUNK_SLOTS;
+                long last = Math.min(slots, first + CHUNK_SLOTS);
+                long maxNumber = 0;
+                for (long number = first; number < last; number++) {
+                    long amount = buffer.getLong(slot(number));
+                    if (amount == ABSENT) {
+                        continue;
+                    }
+                    String iban = Iban.format(number);
+                    accounts.open(iban);
+                    if (amount != 0) {
+                        accounts.deposit(iban, MinorUnits.toBigDecimal(amount));
+                    }
+                    maxNumber = number;
+                }
+                lastAccountNumber.accumulateAndGet(maxNumber, Math::max);
+            });
+            return position;
+        }
+    }
+
+    /**
+     * Writes a new snapshot covering the journal up to its durable position and atomically replaces the old one.
+     *
+     * @return journal position the new snapshot covers
+     */
+    static long write(Path file, TransferJournal journal) throws IOException {
+        long from = 0;
+        long oldSlots = 0;
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                from = header.getLong(0);
+                oldSlots = header.getLong(8);
+            }
+        }
+        long to = journal.durablePosition();
+        if (to == from && Files.exists(file)) {
+            return from;
+        }
+        AtomicLong maxNumber = new AtomicLong(oldSlots - 1);
+        journal.replay(from, to, (type, sourceNumber, targetNumber, amount) -> {
+            if (type == TransferJournal.OPEN) {
+                maxNumber.accumulateAndGet(targetNumber, Math::max);
+            }
+        });
+        long slots = maxNumber.get() + 1;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (oldSlots > 0) {
+                try (FileChannel old = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long copied = 0;
+                    while (copied < oldSlots * 8) {
+                        copied += old.transferTo(HEADER_SIZE + copied, oldSlots * 8 - copied, channel.position(HEADER_SIZE + copied));
+                    }
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, slot(slots));
+            for (long number = oldSlots; number < slots; number++) {
+                buffer.putLong(slot(number), ABSENT);
+            }
+            journal.replay(from, to, (type, sourceNumber, targetNumber, amount) -> {
+                switch (type) {
+                    case TransferJournal.OPEN:
+                        buffer.putLong(slot(targetNumber), 0);
+                        break;
+                    case TransferJournal.DEPOSIT:
+                        add(buffer, targetNumber, amount);
+                        break;
+                    case TransferJournal.TRANSFER:
+                        add(buffer, targetNumber, amount);
+                        add(buffer, sourceNumber, -amount);
+                        break;
+                    case TransferJournal.CLEAR:
+                        for (long number = 0; number < slots; number++) {
+                            buffer.putLong(slot(number), ABSENT);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown journal record type " + type);
+                }
+            });
+            buffer.putLong(0, to);
+            buffer.putLong(8, slots);
+            buffer.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Snapshot of [{}] account slots at journal position [{}] is written!", slots, to);
+        return to;
+    }
+
+    private static void add(MappedByteBuffer buffer, long number, long amount) {
+        int index = slot(number);
+        long balance = buffer.getLong(index);
+        if (balance != ABSENT) {
+            buffer.putLong(index, balance + amount);
+        }
+    }
+
+    private static int slot(long number) {
+        return (int) (HEADER_SIZE + number * 8);
+    }
+}
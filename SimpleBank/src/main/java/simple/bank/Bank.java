@@ -1,14 +1,32 @@
 package simple.bank;
 
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 public interface Bank {
     String openAccount();
+    CompletableFuture<String> openAccountAsync();
     void addMoneyToAccount(String iban, BigDecimal value);
     void transferMoney(String sourceIban, String targetIban, BigDecimal value);
+    CompletableFuture<Boolean> addMoneyToAccountAsync(String iban, BigDecimal value);
+    CompletableFuture<Boolean> transferMoneyAsync(String sourceIban, String targetIban, BigDecimal value);
     String getAccountStatus(String iban);
+
+    /**
+     * @return balance of the account, null if there is no such account
+     */
+    BigDecimal getAccountAmount(String iban);
     String getAllAccounts();
+
+    /**
+     * Visits up to {@code limit} accounts after {@code afterIban} (null to start from the first one) in IBAN order.
+     *
+     * @return IBAN of the last visited account if the limit was reached, null if there are no more accounts
+     */
+    String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action);
     void deleteAllAccounts();
+    CompletableFuture<Void> deleteAllAccountsAsync();
 
     void start();
     void stop();
@@ -0,0 +1,140 @@
+package simple.bank;
+
+import common.BinaryProtocol;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client of the {@link BinaryProtocol} over a single TCP connection. Any number of requests may be in flight,
+ * their futures complete as the responses arrive.
+ */
+public class BinaryClient implements AutoCloseable {
+    private final Vertx vertx;
+    private final boolean ownVertx;
+    private final NetSocket socket;
+    private final AtomicLong lastCorrelationId = new AtomicLong();
+    private final Map<Long, CompletableFuture<Buffer>> inFlight = new ConcurrentHashMap<>();
+
+    private BinaryClient(Vertx vertx, boolean ownVertx, NetSocket socket) {
+        this.vertx = vertx;
+        this.ownVertx = ownVertx;
+        this.socket = socket;
+        socket.handler(BinaryProtocol.frameParser(BinaryProtocol.RESPONSE_SIZE, this::complete,
+                () -> failAll(new IOException("Wrong frame from the server"))));
+        socket.closeHandler(v -> failAll(new IOException("Connection is closed")));
+    }
+
+    public static CompletableFuture<BinaryClient> connect(String host, int port) {
+        return connect(Vertx.vertx(), true, host, port);
+    }
+
+    /**
+     * The connection runs on an event loop of the given Vert.x instance, which is not closed with the client.
+     */
+    public static CompletableFuture<BinaryClient> connect(Vertx vertx, String host, int port) {
+        return connect(vertx, false, host, port);
+    }
+
+    private static CompletableFuture<BinaryClient> connect(Vertx vertx, boolean ownVertx, String host, int port) {
+        CompletableFuture<BinaryClient> client = new CompletableFuture<>();
+        vertx.createNetClient(new NetClientOptions().setTcpNoDelay(true)).connect(port, host, connected -> {
+            if (connected.succeeded()) {
+                client.complete(new BinaryClient(vertx, ownVertx, connected.result()));
+            } else {
+                if (ownVertx) {
+                    vertx.close();
+                }
+                client.completeExceptionally(connected.cause());
+            }
+        });
+        return client;
+    }
+
+    /**
+     * @return true if the deposit is done, false if it is declined;
+     * completes exceptionally if the server rejected it because it is overloaded
+     */
+    public CompletableFuture<Boolean> deposit(String iban, BigDecimal value) {
+        return send(BinaryProtocol.DEPOSIT, null, iban, MinorUnits.of(value)).thenApply(BinaryClient::completed);
+    }
+
+    /**
+     * @return true if the transfer is done, false if it is declined;
+     * completes exceptionally if the server rejected it because it is overloaded
+     */
+    public CompletableFuture<Boolean> transfer(String sourceIban, String targetIban, BigDecimal value) {
+        return send(BinaryProtocol.TRANSFER, sourceIban, targetIban, MinorUnits.of(value))
+                .thenApply(BinaryClient::completed);
+    }
+
+    /**
+     * @return balance of the account, null if there is no such account
+     */
+    public CompletableFuture<BigDecimal> status(String iban) {
+        return send(BinaryProtocol.STATUS, null, iban, 0).thenApply(response -> {
+            byte result = BinaryProtocol.result(response);
+            if (result == BinaryProtocol.NOT_FOUND) {
+                return null;
+            }
+            checkServed(result);
+            return MinorUnits.toBigDecimal(BinaryProtocol.responseAmount(response));
+        });
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        if (ownVertx) {
+            vertx.close();
+        }
+    }
+
+    private CompletableFuture<Buffer> send(byte operation, String sourceIban, String targetIban, long amount) {
+        long correlationId = lastCorrelationId.incrementAndGet();
+        Buffer request = BinaryProtocol.request(correlationId, operation, sourceIban, targetIban, amount);
+        CompletableFuture<Buffer> response = new CompletableFuture<>();
+        inFlight.put(correlationId, response);
+        socket.write(request);
+        return response;
+    }
+
+    private void complete(Buffer response) {
+        CompletableFuture<Buffer> request = inFlight.remove(BinaryProtocol.correlationId(response));
+        if (request != null) {
+            request.complete(response);
+        }
+    }
+
+    private void failAll(IOException e) {
+        inFlight.keySet().forEach(correlationId -> {
+            CompletableFuture<Buffer> request = inFlight.remove(correlationId);
+            if (request != null) {
+                request.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static boolean completed(Buffer response) {
+        byte result = BinaryProtocol.result(response);
+        checkServed(result);
+        return result == BinaryProtocol.OK;
+    }
+
+    private static void checkServed(byte result) {
+        if (result == BinaryProtocol.REJECTED) {
+            throw new IllegalStateException("Request is rejected by the server");
+        }
+        if (result == BinaryProtocol.UNSUPPORTED) {
+            throw new UnsupportedOperationException("Operation is not supported by the server");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package simple.bank;
+
+import common.BinaryProtocol;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * TCP listener of the {@link BinaryProtocol} for internal clients. Requests of one connection are pipelined:
+ * each one is handed to the bank as it arrives and answered when its operation completes.
+ */
+class BinaryServer {
+    static final int DEFAULT_PORT = 4300;
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryServer.class);
+
+    private final Bank bank;
+    private final Vertx vertx;
+    private final int port;
+
+    BinaryServer(Bank bank, int port) {
+        this.bank = bank;
+        this.port = port;
+        this.vertx = Vertx.vertx();
+    }
+
+    void start() {
+        logger.info("Binary Server is starting...");
+        NetServerOptions options = new NetServerOptions()
+                .setTcpNoDelay(true);
+        vertx.createNetServer(options)
+                .connectHandler(this::connect)
+                .listen(port);
+        logger.info("Binary Server is ready on port [{}]!", port);
+    }
+
+    void stop() {
+        vertx.close();
+    }
+
+    private void connect(NetSocket socket) {
+        Context context = vertx.getOrCreateContext();
+        socket.exceptionHandler(e -> logger.error("Connection [{}] is failed: {}", socket.remoteAddress(), e.getMessage()));
+        socket.handler(BinaryProtocol.frameParser(BinaryProtocol.REQUEST_SIZE,
+                request -> handle(request, socket, context),
+                () -> {
+                    logger.error("Wrong frame from [{}]! Connection will closed!", socket.remoteAddress());
+                    socket.close();
+                }));
+    }
+
+    private void handle(Buffer request, NetSocket socket, Context context) {
+        long correlationId = BinaryProtocol.correlationId(request);
+        switch (BinaryProtocol.operation(request)) {
+            case BinaryProtocol.DEPOSIT:
+                respondWhenDone(bank.addMoneyToAccountAsync(BinaryProtocol.targetIban(request),
+                        MinorUnits.toBigDecimal(BinaryProtocol.requestAmount(request))), correlationId, socket, context);
+                break;
+            case BinaryProtocol.TRANSFER:
+                respondWhenDone(bank.transferMoneyAsync(BinaryProtocol.sourceIban(request),
+                        BinaryProtocol.targetIban(request),
+                        MinorUnits.toBigDecimal(BinaryProtocol.requestAmount(request))), correlationId, socket, context);
+                break;
+            case BinaryProtocol.STATUS:
+                BigDecimal amount = bank.getAccountAmount(BinaryProtocol.targetIban(request));
+                if (amount == null) {
+                    respond(socket, correlationId, BinaryProtocol.NOT_FOUND, 0);
+                    break;
+                }
+                try {
+                    respond(socket, correlationId, BinaryProtocol.OK, MinorUnits.of(amount));
+                } catch (ArithmeticException e) {
+                    logger.error("Amount [{}] has no exact binary form: {}", amount, e.getMessage());
+                    respond(socket, correlationId, BinaryProtocol.REJECTED, 0);
+                }
+                break;
+            default:
+                respond(socket, correlationId, BinaryProtocol.UNSUPPORTED, 0);
+        }
+    }
+
+    private void respondWhenDone(CompletableFuture<Boolean> result, long correlationId, NetSocket socket,
+                                 Context context) {
+        if (result.isDone()) {
+            respondDone(result, correlationId, socket);
+            return;
+        }
+        result.whenComplete((done, e) -> context.runOnContext(v -> respondDone(result, correlationId, socket)));
+    }
+
+    private void respondDone(CompletableFuture<Boolean> result, long correlationId, NetSocket socket) {
+        if (result.isCompletedExceptionally()) {
+            respond(socket, correlationId, BinaryProtocol.REJECTED, 0);
+        } else {
+            respond(socket, correlationId, result.join() ? BinaryProtocol.OK : BinaryProtocol.DECLINED, 0);
+        }
+    }
+
+    /**
+     * A client that does not read its responses stops the reading of its further requests.
+     */
+    private static void respond(NetSocket socket, long correlationId, byte result, long amount) {
+        socket.write(BinaryProtocol.response(correlationId, result, amount));
+        if (socket.writeQueueFull()) {
+            socket.pause();
+            socket.drainHandler(v -> socket.resume());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package simple.bank;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Balances in minor units kept in lazily allocated segments of a long array.
+ * The slot is the account number parsed from the IBAN, so a lookup needs no hashing
+ * and no allocation, and an account costs 8 bytes of heap.
+ */
+public class CompactAccountStore implements AccountStore {
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private final AtomicReferenceArray<AtomicLongArray> segments;
+    private final AtomicInteger size = new AtomicInteger();
+
+    public CompactAccountStore() {
+        this.segments = new AtomicReferenceArray<>((int) ((Iban.MAX_NUMBER >> SEGMENT_SHIFT) + 1));
+    }
+
+    @Override
+    public void open(String iban) {
+        long number = Iban.parseNumber(iban);
+        if (number < 0) {
+            throw new IllegalArgumentException("IBAN [" + iban + "] does not belong to the bank");
+        }
+        AtomicLongArray segment = segmentForUpdate(number);
+        if (segment.compareAndSet(offset(number), ABSENT, 0L)) {
+            size.incrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean contains(String iban) {
+        return balance(iban) != ABSENT;
+    }
+
+    @Override
+    public boolean withdraw(String iban, BigDecimal value) {
+        long number = Iban.parseNumber(iban);
+        AtomicLongArray segment = segment(number);
+        if (segment == null) {
+            return false;
+        }
+        long delta = MinorUnits.of(value);
+        int offset = offset(number);
+        for (;;) {
+            long amount = segment.get(offset);
+            if (amount == ABSENT || amount < delta) {
+                return false;
+            }
+            if (segment.compareAndSet(offset, amount, amount - delta))
+                return true;
+        }
+    }
+
+    @Override
+    public void deposit(String iban, BigDecimal value) {
+        long number = Iban.parseNumber(iban);
+        AtomicLongArray segment = segment(number);
+        if (segment == null) {
+            return;
+        }
+        long delta = MinorUnits.of(value);
+        int offset = offset(number);
+        for (;;) {
+            long amount = segment.get(offset);
+            if (amount == ABSENT) {
+                return;
+            }
+            if (segment.compareAndSet(offset, amount, Math.addExact(amount, delta)))
+                return;
+        }
+    }
+
+    @Override
+    public BigDecimal status(String iban) {
+        long amount = balance(iban);
+        return amount != ABSENT ? MinorUnits.toBigDecimal(amount) : null;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, BigDecimal> action) {
+        for (int i = 0; i < segments.length(); i++) {
+            AtomicLongArray segment = segments.get(i);
+            if (segment == null) {
+                continue;
+            }
+            for (int j = 0; j < SEGMENT_SIZE; j++) {
+                long amount = segment.get(j);
+                if (amount != ABSENT) {
+                    action.accept(Iban.format(((long) i << SEGMENT_SHIFT) | j), MinorUnits.toBigDecimal(amount));
+                }
+            }
+        }
+    }
+
+    @Override
+    public long forEachAfter(long afterNumber, int limit, BiConsumer<String, BigDecimal> action) {
+        int visited = 0;
+        long number = Math.max(afterNumber + 1, 0);
+        while (number <= Iban.MAX_NUMBER) {
+            AtomicLongArray segment = segment(number);
+            if (segment == null) {
+                number = ((number >> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+                continue;
+            }
+            long amount = segment.get(offset(number));
+            if (amount != ABSENT) {
+                action.accept(Iban.format(number), MinorUnits.toBigDecimal(amount));
+                if (++visited == limit) {
+                    return number;
+                }
+            }
+            number++;
+        }
+        return -1;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < segments.length(); i++) {
+            segments.set(i, null);
+        }
+        size.set(0);
+    }
+
+    private long balance(String iban) {
+        long number = Iban.parseNumber(iban);
+        AtomicLongArray segment = segment(number);
+        return segment != null ? segment.get(offset(number)) : ABSENT;
+    }
+
+    private AtomicLongArray segment(long number) {
+        if (number < 0 || number > Iban.MAX_NUMBER) {
+            return null;
+        }
+        return segments.get((int) (number >> SEGMENT_SHIFT));
+    }
+
+    private AtomicLongArray segmentForUpdate(long number) {
+        int index = (int) (number >> SEGMENT_SHIFT);
+        AtomicLongArray created = null;
+        for (;;) {
+            AtomicLongArray segment = segments.get(index);
+            if (segment != null) {
+                return segment;
+            }
+            if (created == null) {
+                created = new AtomicLongArray(SEGMENT_SIZE);
+                for (int i = 0; i < SEGMENT_SIZE; i++) {
+                    created.lazySet(i, ABSENT);
+                }
+            }
+            if (segments.compareAndSet(index, null, created)) {
+                return created;
+            }
+        }
+    }
+
+    private static int offset(long number) {
+        return (int) (number & SEGMENT_MASK);
+    }
+}
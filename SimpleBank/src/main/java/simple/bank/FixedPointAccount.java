@@ -0,0 +1,128 @@
+package simple.bank;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Account with the balance stored as a long of minor units.
+ * The amount is converted once per call, so the CAS loop itself does not allocate.
+ * <p>
+ * A hot account, whose CAS attempts fail at least once per {@link #PROMOTION_FAILURE_RATIO} operations
+ * of a window, is promoted to a {@link SplitBalance} and stays there. The balance is moved by swapping
+ * the single value for {@link #MOVED}, an operation that reads it waits for the split balance to be published.
+ */
+public class FixedPointAccount implements BankAccount {
+    private static final long MOVED = Long.MIN_VALUE;
+    private static final int PROMOTION_WINDOW = 1024;
+    private static final int PROMOTION_FAILURE_RATIO = 8;
+
+    private final AtomicLong amountRef = new AtomicLong();
+    private volatile SplitBalance split;
+    // racy counters, an estimate is enough to detect contention
+    private int operations;
+    private int casFailures;
+
+    FixedPointAccount() {
+    }
+
+    @Override
+    public boolean withdraw(BigDecimal value) {
+        long delta = MinorUnits.of(value);
+        int failures = 0;
+        for (;;) {
+            SplitBalance balance = split;
+            if (balance != null) {
+                return balance.withdraw(delta);
+            }
+            long amount = amountRef.get();
+            if (amount == MOVED) {
+                Thread.yield();
+                continue;
+            }
+            if (amount < delta) {
+                countContention(failures);
+                return false;
+            }
+            if (amountRef.compareAndSet(amount, amount - delta)) {
+                countContention(failures);
+                return true;
+            }
+            failures++;
+        }
+    }
+
+    @Override
+    public void deposit(BigDecimal value) {
+        long delta = MinorUnits.of(value);
+        int failures = 0;
+        for (;;) {
+            SplitBalance balance = split;
+            if (balance != null) {
+                balance.deposit(delta);
+                return;
+            }
+            long amount = amountRef.get();
+            if (amount == MOVED) {
+                Thread.yield();
+                continue;
+            }
+            if (amountRef.compareAndSet(amount, Math.addExact(amount, delta))) {
+                countContention(failures);
+                return;
+            }
+            failures++;
+        }
+    }
+
+    @Override
+    public BigDecimal status() {
+        for (;;) {
+            SplitBalance balance = split;
+            if (balance != null) {
+                return MinorUnits.toBigDecimal(balance.sum());
+            }
+            long amount = amountRef.get();
+            if (amount != MOVED) {
+                return MinorUnits.toBigDecimal(amount);
+            }
+            Thread.yield();
+        }
+    }
+
+    private void countContention(int failures) {
+        casFailures += failures;
+        if (++operations < PROMOTION_WINDOW) {
+            return;
+        }
+        boolean hot = casFailures * PROMOTION_FAILURE_RATIO >= operations;
+        operations = 0;
+        casFailures = 0;
+        if (hot) {
+            promote();
+        }
+    }
+
+    /**
+     * @return true once the balance is moved to a {@link SplitBalance}
+     */
+    public boolean isSplit() {
+        return split != null;
+    }
+
+    /**
+     * Moves the balance to a {@link SplitBalance} without waiting for contention, e.g. for an account known to be hot.
+     */
+    public void promote() {
+        for (;;) {
+            long amount = amountRef.get();
+            if (amount == MOVED) {
+                return;
+            }
+            SplitBalance balance = new SplitBalance(SplitBalance.DEFAULT_CELLS, amount);
+            if (amountRef.compareAndSet(amount, MOVED)) {
+                split = balance;
+                return;
+            }
+        }
+    }
+}
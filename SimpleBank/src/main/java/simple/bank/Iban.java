@@ -0,0 +1,46 @@
+package simple.bank;
+
+/**
+ * IBANs of this bank have the form BANK_00000001, the numeric part is the account number.
+ */
+final class Iban {
+    static final String PREFIX = "BANK_";
+    static final int DIGITS = 8;
+    static final long MAX_NUMBER = 99_999_999L;
+
+    private Iban() {
+    }
+
+    static String format(long number) {
+        if (number < 0 || number > MAX_NUMBER) {
+            return String.format("%s%08d", PREFIX, number);
+        }
+        char[] chars = new char[PREFIX.length() + DIGITS];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        for (int i = chars.length - 1; i >= PREFIX.length(); i--) {
+            chars[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses the account number without allocating.
+     *
+     * @return the account number or -1 if the IBAN does not belong to this bank
+     */
+    static long parseNumber(String iban) {
+        if (iban == null || iban.length() != PREFIX.length() + DIGITS || !iban.startsWith(PREFIX)) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = PREFIX.length(); i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
@@ -0,0 +1,89 @@
+package simple.bank;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * One {@link BankAccount} object per account in a ConcurrentHashMap,
+ * with a sorted index of the account numbers for the paged listing.
+ */
+public class MapAccountStore implements AccountStore {
+    private final AccountType accountType;
+    private final ConcurrentHashMap<String, BankAccount> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, String> ibansByNumber = new ConcurrentSkipListMap<>();
+
+    public MapAccountStore(AccountType accountType) {
+        this.accountType = accountType;
+    }
+
+    @Override
+    public void open(String iban) {
+        accounts.put(iban, accountType.create());
+        long number = Iban.parseNumber(iban);
+        if (number > 0) {
+            ibansByNumber.put(number, iban);
+        }
+    }
+
+    @Override
+    public boolean contains(String iban) {
+        return accounts.containsKey(iban);
+    }
+
+    @Override
+    public boolean withdraw(String iban, BigDecimal value) {
+        BankAccount account = accounts.get(iban);
+        return account != null && account.withdraw(value);
+    }
+
+    @Override
+    public void deposit(String iban, BigDecimal value) {
+        BankAccount account = accounts.get(iban);
+        if (account != null) {
+            account.deposit(value);
+        }
+    }
+
+    @Override
+    public BigDecimal status(String iban) {
+        BankAccount account = accounts.get(iban);
+        return account != null ? account.status() : null;
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, BigDecimal> action) {
+        accounts.forEach((iban, account) -> action.accept(iban, account.status()));
+    }
+
+    /**
+     * Seeks the number index past {@code afterNumber}, so a page costs the same wherever it starts.
+     */
+    @Override
+    public long forEachAfter(long afterNumber, int limit, BiConsumer<String, BigDecimal> action) {
+        int visited = 0;
+        for (Map.Entry<Long, String> entry : ibansByNumber.tailMap(afterNumber, false).entrySet()) {
+            BankAccount account = accounts.get(entry.getValue());
+            if (account != null) {
+                action.accept(entry.getValue(), account.status());
+                if (++visited == limit) {
+                    return entry.getKey();
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void clear() {
+        accounts.clear();
+        ibansByNumber.clear();
+    }
+}
@@ -0,0 +1,24 @@
+package simple.bank;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversion between BigDecimal amounts and a long number of minor units (cents).
+ */
+final class MinorUnits {
+    static final int SCALE = 2;
+
+    private MinorUnits() {
+    }
+
+    /**
+     * @throws ArithmeticException if the value has more than {@link #SCALE} decimal places or does not fit into a long
+     */
+    static long of(BigDecimal value) {
+        return value.movePointRight(SCALE).longValueExact();
+    }
+
+    static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+}
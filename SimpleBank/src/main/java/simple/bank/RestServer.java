@@ -1,11 +1,18 @@
 package simple.bank;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import common.IdempotencyWindow;
+import common.JsonCodec;
+import common.LatencyMetrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerOptions;
-import io.vertx.core.json.JsonObject;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.spi.VerticleFactory;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
@@ -14,77 +21,209 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
-class RestServer {
+/**
+ * REST verticle of the bank. Deployed in several instances, each one runs on its own event loop
+ * and Vert.x spreads the connections to the shared port between them.
+ */
+class RestServer extends AbstractVerticle {
     private static final Logger logger = LoggerFactory.getLogger(RestServer.class);
     private static final int WEB_PORT = 4200;
+    private static final String FACTORY_PREFIX = "simple-bank-rest";
 
     private final Bank bank;
-    private final Vertx vertx;
+    private final LatencyMetrics metrics;
+    private final IdempotencyWindow idempotency;
 
-    RestServer(Bank bank) {
+    private RestServer(Bank bank, LatencyMetrics metrics, IdempotencyWindow idempotency) {
         this.bank = bank;
-        this.vertx = Vertx.vertx();
+        this.metrics = metrics;
+        this.idempotency = idempotency;
     }
 
-    void start() {
+    /**
+     * Deploys {@code instances} REST servers sharing the bank, the metrics and the idempotency window.
+     *
+     * @return future completed when all instances listen on the port
+     */
+    static CompletableFuture<String> deploy(Vertx vertx, Bank bank, LatencyMetrics metrics, int instances) {
+        IdempotencyWindow idempotency = new IdempotencyWindow(
+                Integer.getInteger("simple.bank.idempotency.capacity", IdempotencyWindow.DEFAULT_CAPACITY),
+                Long.getLong("simple.bank.idempotency.ttl", IdempotencyWindow.DEFAULT_TTL_SECONDS));
+        vertx.registerVerticleFactory(new VerticleFactory() {
+            @Override
+            public String prefix() {
+                return FACTORY_PREFIX;
+            }
+
+            @Override
+            public Verticle createVerticle(String verticleName, ClassLoader classLoader) {
+                return new RestServer(bank, metrics, idempotency);
+            }
+        });
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(FACTORY_PREFIX + ":" + RestServer.class.getName(),
+                new DeploymentOptions().setInstances(instances), result -> {
+                    if (result.succeeded()) {
+                        logger.info("REST Server is ready on port [{}] in [{}] instances!", WEB_PORT, instances);
+                        deployed.complete(result.result());
+                    } else {
+                        deployed.completeExceptionally(result.cause());
+                    }
+                });
+        return deployed;
+    }
+
+    @Override
+    public void start(Future<Void> startFuture) {
         logger.info("REST Server is starting...");
         Router router = Router.router(vertx);
+        router.route().handler(this::recordLatency);
         router.route().handler(BodyHandler.create());
 
         router.put("/account/open").handler(rc -> handlerWrapper(rc, this::openAccount));
         router.post("/account/deposit").handler(rc -> handlerWrapper(rc, this::addMoneyToAccount));
         router.post("/account/transfer").handler(rc -> handlerWrapper(rc, this::transferMoney));
+        router.post("/account/transfer/batch").handler(rc -> handlerWrapper(rc, this::transferMoneyBatch));
         router.post("/account/status").handler(rc -> handlerWrapper(rc, this::getAccountStatus));
         router.get("/account/getAll").handler(rc -> handlerWrapper(rc, this::getAllAccounts));
         router.delete("/account/deleteAll").handler(rc -> handlerWrapper(rc, this::deleteAllAccounts));
+        router.get("/metrics").handler(this::getMetrics);
         router.get("/stop").handler(rc -> handlerWrapper(rc, this::stop));
 
+        router.getRoutes().forEach(route -> {
+            if (route.getPath() != null) {
+                metrics.registerRoute(route.getPath());
+            }
+        });
+
         HttpServerOptions httpServerOptions = new HttpServerOptions();
         vertx.createHttpServer(httpServerOptions)
                 .requestHandler(router::accept)
-                .listen(WEB_PORT);
-        logger.info("REST Server is ready on port [{}]!", WEB_PORT);
+                .listen(WEB_PORT, result -> {
+                    if (result.succeeded()) {
+                        startFuture.complete();
+                    } else {
+                        startFuture.fail(result.cause());
+                    }
+                });
     }
 
-    void stop() {
-        vertx.close();
+    /**
+     * Records the time from the request headers to the end of the response body under the route path.
+     */
+    private void recordLatency(RoutingContext rc) {
+        long start = System.nanoTime();
+        String path = rc.request().path();
+        rc.addBodyEndHandler(v -> metrics.recordRoute(path, start));
+        rc.next();
     }
 
-    private void openAccount(RoutingContext rc) throws JsonProcessingException {
-        responseOk(bank.openAccount(), rc);
+    private void getMetrics(RoutingContext rc) {
+        rc.response()
+                .setStatusCode(200)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; version=0.0.4")
+                .end(metrics.toPrometheus());
     }
 
-    private void addMoneyToAccount(RoutingContext rc) throws JsonProcessingException {
-        JsonObject requestBody = rc.getBodyAsJson();
-        String iban = requestBody.getString("iban");
-        BigDecimal value = BigDecimal.valueOf(requestBody.getDouble("amount"));
-        bank.addMoneyToAccount(iban, value);
-        responseOk(null, rc);
+    private void openAccount(RoutingContext rc) {
+        responseOkWhenDone(bank.openAccountAsync(), rc);
     }
 
-    private void transferMoney(RoutingContext rc) throws JsonProcessingException {
-        JsonObject requestBody = rc.getBodyAsJson();
-        String sourceIban = requestBody.getString("sourceIban");
-        String targetIban = requestBody.getString("targetIban");
-        BigDecimal value = BigDecimal.valueOf(requestBody.getDouble("amount"));
-        bank.transferMoney(sourceIban,targetIban, value);
-        responseOk(null, rc);
+    private void addMoneyToAccount(RoutingContext rc) {
+        JsonCodec.AccountRequest request = parseObject(rc);
+        if (request == null) {
+            return;
+        }
+        if (request.amount == null) {
+            rc.fail(400);
+            return;
+        }
+        runOnce(rc, () -> bank.addMoneyToAccountAsync(request.iban, request.amount));
     }
 
-    private void getAccountStatus(RoutingContext rc) throws JsonProcessingException {
-        JsonObject requestBody = rc.getBodyAsJson();
-        String iban = requestBody.getString("iban");
-        responseOk(bank.getAccountStatus(iban), rc);
+    private void transferMoney(RoutingContext rc) {
+        JsonCodec.AccountRequest request = parseObject(rc);
+        if (request == null) {
+            return;
+        }
+        if (request.amount == null) {
+            rc.fail(400);
+            return;
+        }
+        runOnce(rc, () -> bank.transferMoneyAsync(request.sourceIban, request.targetIban, request.amount));
     }
 
-    private void getAllAccounts(RoutingContext rc) throws JsonProcessingException {
-        responseOk(bank.getAllAccounts(), rc);
+    private void transferMoneyBatch(RoutingContext rc) {
+        List<JsonCodec.AccountRequest> requests;
+        try {
+            requests = JsonCodec.parseArray(rc.getBody());
+        } catch (IllegalArgumentException e) {
+            logger.error("Wrong batch request: {}", e.getMessage());
+            rc.fail(400);
+            return;
+        }
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(requests.size());
+        for (JsonCodec.AccountRequest transfer : requests) {
+            results.add(transfer.amount == null
+                    ? CompletableFuture.completedFuture(false)
+                    : bank.transferMoneyAsync(transfer.sourceIban, transfer.targetIban, transfer.amount)
+                            .exceptionally(e -> false));
+        }
+        Context context = vertx.getOrCreateContext();
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete((done, e) ->
+                context.runOnContext(v -> {
+                    List<Boolean> completed = new ArrayList<>(results.size());
+                    results.forEach(result -> completed.add(result.join()));
+                    responseOk(JsonCodec.batchResult(requests, completed), rc);
+                }));
+    }
+
+    private void getAccountStatus(RoutingContext rc) {
+        JsonCodec.AccountRequest request = parseObject(rc);
+        if (request == null) {
+            return;
+        }
+        BigDecimal amount = bank.getAccountAmount(request.iban);
+        responseOk(amount != null ? JsonCodec.status(request.iban, amount) : JsonCodec.EMPTY, rc);
     }
 
-    private void deleteAllAccounts(RoutingContext rc) throws JsonProcessingException {
-        bank.deleteAllAccounts();
-        responseOk(null, rc);
+    /**
+     * @return the request, or null if the body is malformed and the request is failed with 400
+     */
+    private JsonCodec.AccountRequest parseObject(RoutingContext rc) {
+        try {
+            return JsonCodec.parseObject(rc.getBody());
+        } catch (IllegalArgumentException e) {
+            logger.error("Wrong request [{}]: {}", rc.request().path(), e.getMessage());
+            rc.fail(400);
+            return null;
+        }
+    }
+
+    private void getAllAccounts(RoutingContext rc) {
+        String after = rc.request().getParam("after");
+        String limit = rc.request().getParam("limit");
+        long maxAccounts;
+        try {
+            maxAccounts = limit != null ? Long.parseLong(limit) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            maxAccounts = 0;
+        }
+        if (maxAccounts <= 0) {
+            logger.error("Wrong limit [{}] for reading accounts!", limit);
+            rc.fail(400);
+            return;
+        }
+        new AccountsStream(bank, vertx, rc.response(), after, maxAccounts).start();
+    }
+
+    private void deleteAllAccounts(RoutingContext rc) {
+        responseOkWhenDone(bank.deleteAllAccountsAsync().thenApply(v -> JsonCodec.EMPTY), rc);
     }
 
     @SuppressWarnings("all")
@@ -106,13 +245,98 @@ class RestServer {
         void accept(T t) throws IOException;
     }
 
-    private void responseOk(Object obj, RoutingContext rc) throws JsonProcessingException {
-        String responseData;
-        if (obj == null) {
-            responseData = "{}";
-        } else {
-            responseData = obj instanceof String ? (String) obj : new ObjectMapper().writeValueAsString(obj);
+    /**
+     * Runs the operation unless the request repeats the {@link IdempotencyWindow#HEADER} of a recent one.
+     * A repeated request gets the response of the earlier one without touching the accounts,
+     * or 409 with a Retry-After hint while the earlier one is still running.
+     * A key that can not be tracked gets 503 with a Retry-After hint.
+     */
+    private void runOnce(RoutingContext rc, Supplier<CompletableFuture<Boolean>> operation) {
+        String key = rc.request().getHeader(IdempotencyWindow.HEADER);
+        if (key == null) {
+            responseWhenDone(operation.get(), rc);
+            return;
+        }
+        long fingerprint = IdempotencyWindow.fingerprint(key);
+        switch (idempotency.begin(fingerprint)) {
+            case IdempotencyWindow.COMPLETED:
+            case IdempotencyWindow.DECLINED:
+                logger.debug("Request [{}] with key [{}] is replayed!", rc.request().path(), key);
+                responseOk(JsonCodec.EMPTY, rc);
+                return;
+            case IdempotencyWindow.PENDING:
+                rc.response()
+                        .setStatusCode(409) // 409 Conflict
+                        .putHeader("Retry-After", "1")
+                        .end();
+                return;
+            case IdempotencyWindow.NEW:
+                CompletableFuture<Boolean> result;
+                try {
+                    result = operation.get();
+                } catch (RuntimeException e) {
+                    idempotency.abandon(fingerprint);
+                    throw e;
+                }
+                responseWhenDone(result.whenComplete((done, e) -> {
+                    if (e != null) {
+                        idempotency.abandon(fingerprint);
+                    } else {
+                        idempotency.complete(fingerprint, done);
+                    }
+                }), rc);
+                return;
+            default:
+                // the window is saturated, without the key a retry of the request could run twice
+                logger.warn("Request [{}] with key [{}] is not tracked!", rc.request().path(), key);
+                rc.response()
+                        .setStatusCode(503) // 503 Service Unavailable
+                        .putHeader("Retry-After", "1")
+                        .end();
+        }
+    }
+
+    private void responseWhenDone(CompletableFuture<Boolean> result, RoutingContext rc) {
+        if (result.isDone()) {
+            responseDone(result, rc);
+            return;
+        }
+        Context context = vertx.getOrCreateContext();
+        result.whenComplete((done, e) -> context.runOnContext(v -> responseDone(result, rc)));
+    }
+
+    private void responseDone(CompletableFuture<Boolean> result, RoutingContext rc) {
+        if (result.isCompletedExceptionally()) {
+            logger.error("Request [{}] is rejected!", rc.request().path());
+            rc.response().setStatusCode(503).end();
+            return;
         }
+        rc.response()
+                .setStatusCode(200)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                .end(JsonCodec.EMPTY);
+    }
+
+    /**
+     * Answers on the event loop once the journal record of the change is on disk.
+     */
+    private void responseOkWhenDone(CompletableFuture<String> response, RoutingContext rc) {
+        Context context = vertx.getOrCreateContext();
+        response.whenComplete((responseData, e) -> context.runOnContext(v -> {
+            if (e != null) {
+                logger.error("Request [{}] is failed: {}", rc.request().path(), e.getMessage());
+                rc.fail(500);
+                return;
+            }
+            responseOk(responseData, rc);
+        }));
+    }
+
+    private void responseOk(String responseData, RoutingContext rc) {
+        responseOk(Buffer.buffer(responseData), rc);
+    }
+
+    private void responseOk(Buffer responseData, RoutingContext rc) {
         rc.response()
                 .setStatusCode(200)
                 .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
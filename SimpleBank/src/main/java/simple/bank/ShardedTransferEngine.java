@@ -0,0 +1,287 @@
+package simple.bank;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Partitions the accounts into shards, each owned by a single thread that applies all changes of its accounts.
+ * Clients put commands into a bounded ring per shard and get a rejected future when it is full.
+ * A transfer is debited by the source shard and handed off to the target shard for the credit
+ * (or back to the source shard for a refund), so the money is always either on an account or in a command.
+ * <p>
+ * With a journal the credit is applied and recorded under the journal lock, and the result completes once
+ * the record is on disk. The debit is not recorded alone: until the credit is journaled a replay only sees
+ * the source with more money, and a refunded transfer is not journaled at all.
+ */
+public class ShardedTransferEngine implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedTransferEngine.class);
+    private static final int SPINS_BEFORE_PARK = 100;
+
+    private final AccountStore accounts;
+    private final Shard[] shards;
+    private final TransferJournal journal;
+    private volatile boolean closed;
+    // set after the shard threads are joined, from then on a submitter may drain a shard itself
+    private volatile boolean stopped;
+
+    public ShardedTransferEngine(AccountStore accounts, int shardsQty, int queueCapacity) {
+        this(accounts, shardsQty, queueCapacity, null);
+    }
+
+    /**
+     * @param journal journal the deposits and transfers are appended to, null to keep them only in memory
+     */
+    public ShardedTransferEngine(AccountStore accounts, int shardsQty, int queueCapacity, TransferJournal journal) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.shards = new Shard[shardsQty];
+        for (int i = 0; i < shardsQty; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * @return future completed with true if the money was deposited, or exceptionally if the shard queue is full
+     */
+    public CompletableFuture<Boolean> deposit(String iban, BigDecimal value) {
+        return submit(new Command(null, iban, value, Stage.CREDIT), iban);
+    }
+
+    /**
+     * @return future completed with true if the money was moved, or exceptionally if the shard queue is full
+     */
+    public CompletableFuture<Boolean> transfer(String sourceIban, String targetIban, BigDecimal value) {
+        return submit(new Command(sourceIban, targetIban, value, Stage.DEBIT), sourceIban);
+    }
+
+    int queueSize() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.commands.size();
+        }
+        return size;
+    }
+
+    /**
+     * Stops the shard threads and fails the futures of the commands left in the queues.
+     * A transfer already debited is refunded to its source account first.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stopped = true;
+        for (Shard shard : shards) {
+            shard.drain();
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(Command command, String iban) {
+        Shard shard = shardOf(iban);
+        if (closed) {
+            command.result.completeExceptionally(new RejectedExecutionException("Transfer engine is closed"));
+            return command.result;
+        }
+        if (!shard.commands.offer(command)) {
+            command.result.completeExceptionally(new RejectedExecutionException("Shard " + shard.index + " is full"));
+            return command.result;
+        }
+        if (stopped) {
+            // offered after close() drained the shard, the shard thread is gone so this is the only consumer
+            shard.drain();
+        }
+        shard.wakeUp();
+        return command.result;
+    }
+
+    private Shard shardOf(String iban) {
+        long number = Iban.parseNumber(iban);
+        if (number < 0) {
+            number = iban.hashCode() & Integer.MAX_VALUE;
+        }
+        return shards[(int) (number % shards.length)];
+    }
+
+    private void apply(Shard shard, Command command) {
+        switch (command.stage) {
+            case DEBIT:
+                boolean withdrawn;
+                try {
+                    withdrawn = accounts.withdraw(command.sourceIban, command.value);
+                } catch (ArithmeticException e) {
+                    withdrawn = false;
+                }
+                if (!withdrawn) {
+                    command.result.complete(false);
+                    return;
+                }
+                command.stage = Stage.CREDIT;
+                handOff(shard, command, command.targetIban);
+                return;
+            case CREDIT:
+                CompletableFuture<Void> durable = null;
+                boolean deposited;
+                try {
+                    if (journal != null) {
+                        durable = journal.appendApplied(
+                                command.sourceIban != null ? TransferJournal.TRANSFER : TransferJournal.DEPOSIT,
+                                command.sourceIban != null ? Iban.parseNumber(command.sourceIban) : 0,
+                                Iban.parseNumber(command.targetIban), MinorUnits.of(command.value),
+                                () -> credit(command));
+                        deposited = durable != null;
+                    } else {
+                        deposited = credit(command);
+                    }
+                } catch (ArithmeticException e) {
+                    deposited = false;
+                }
+                if (durable != null) {
+                    durable.whenComplete((v, e) -> {
+                        if (e != null) {
+                            command.result.completeExceptionally(e);
+                        } else {
+                            command.result.complete(true);
+                        }
+                    });
+                    return;
+                }
+                if (deposited || command.sourceIban == null) {
+                    command.result.complete(deposited);
+                    return;
+                }
+                command.stage = Stage.REFUND;
+                handOff(shard, command, command.sourceIban);
+                return;
+            case REFUND:
+                accounts.deposit(command.sourceIban, command.value);
+                command.result.complete(false);
+                return;
+            default:
+                throw new IllegalStateException("Unknown stage " + command.stage);
+        }
+    }
+
+    private boolean credit(Command command) {
+        if (!accounts.contains(command.targetIban)) {
+            return false;
+        }
+        accounts.deposit(command.targetIban, command.value);
+        return true;
+    }
+
+    private void handOff(Shard current, Command command, String iban) {
+        Shard next = shardOf(iban);
+        if (next == current) {
+            apply(current, command);
+        } else {
+            next.handOffs.add(command);
+            next.wakeUp();
+        }
+    }
+
+    private enum Stage {
+        DEBIT, CREDIT, REFUND
+    }
+
+    private static final class Command {
+        final String sourceIban;
+        final String targetIban;
+        final BigDecimal value;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Stage stage;
+
+        Command(String sourceIban, String targetIban, BigDecimal value, Stage stage) {
+            this.sourceIban = sourceIban;
+            this.targetIban = targetIban;
+            this.value = value;
+            this.stage = stage;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final int index;
+        final MpscRingBuffer<Command> commands;
+        // Handoffs from other shards carry money that is already debited, so they are never rejected.
+        final Queue<Command> handOffs = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile boolean running = true;
+        volatile boolean parked;
+
+        Shard(int index, int queueCapacity) {
+            this.index = index;
+            this.commands = new MpscRingBuffer<>(queueCapacity);
+            this.thread = new Thread(this, "transfer-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Runs only after the shard thread has stopped, synchronized so the ring still has a single consumer.
+         */
+        synchronized void drain() {
+            for (Command command = handOffs.poll(); command != null; command = handOffs.poll()) {
+                if (command.sourceIban != null && command.stage != Stage.DEBIT) {
+                    // the money is in the command: debited on the way to the credit, or on the way back
+                    accounts.deposit(command.sourceIban, command.value);
+                }
+                command.result.completeExceptionally(new RejectedExecutionException("Transfer engine is closed"));
+            }
+            for (Command command = commands.poll(); command != null; command = commands.poll()) {
+                command.result.completeExceptionally(new RejectedExecutionException("Transfer engine is closed"));
+            }
+        }
+
+        void wakeUp() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                Command command = handOffs.poll();
+                if (command == null) {
+                    command = commands.poll();
+                }
+                if (command != null) {
+                    idle = 0;
+                    try {
+                        apply(this, command);
+                    } catch (RuntimeException e) {
+                        logger.error(e.getMessage(), e);
+                        command.result.completeExceptionally(e);
+                    }
+                } else if (++idle > SPINS_BEFORE_PARK) {
+                    parked = true;
+                    if (handOffs.isEmpty() && commands.size() == 0) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+}
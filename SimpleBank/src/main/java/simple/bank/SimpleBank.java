@@ -1,24 +1,162 @@
 package simple.bank;
 
+import common.AuditLog;
+import common.LatencyMetrics;
+import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
 public class SimpleBank implements Bank {
     private static final Logger logger = LoggerFactory.getLogger(SimpleBank.class);
 
-    private RestServer rest;
-    private final ConcurrentHashMap<String, BankAccount> accounts = new ConcurrentHashMap<>();
+    private Vertx rest;
+    private BinaryServer binary;
+    private static final int ENGINE_QUEUE_CAPACITY = 64 * 1024;
+
+    private final AccountStore accounts;
+    private final AtomicLong lastAccountNumber = new AtomicLong();
+    private final ShardedTransferEngine engine;
+    private final TransferJournal journal;
+    private final Path snapshotFile;
+    private ScheduledExecutorService snapshots;
+    private volatile AuditLog audit;
+    private final LatencyMetrics metrics = Stages.metrics();
+
+    public SimpleBank() {
+        this(AccountType.BIG_DECIMAL);
+    }
+
+    public SimpleBank(AccountType accountType) {
+        this(new MapAccountStore(accountType));
+    }
+
+    public SimpleBank(AccountStore accounts) {
+        this(accounts, 0);
+    }
+
+    /**
+     * @param shards number of single-writer shards applying deposits and transfers, 0 to apply them on the caller thread
+     */
+    public SimpleBank(AccountStore accounts, int shards) {
+        this(accounts, shards, null);
+    }
+
+    /**
+     * @param journal journal the accounts are restored from and the changes are appended to, null to keep them only in memory
+     */
+    public SimpleBank(AccountStore accounts, int shards, TransferJournal journal) {
+        this(accounts, shards, journal, null);
+    }
+
+    /**
+     * @param snapshotFile snapshot of the balances the journal replay starts from, null to replay the whole journal
+     */
+    public SimpleBank(AccountStore accounts, int shards, TransferJournal journal, Path snapshotFile) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.snapshotFile = snapshotFile;
+        if (journal != null) {
+            restore(journal);
+        }
+        this.engine = shards > 0 ? new ShardedTransferEngine(accounts, shards, ENGINE_QUEUE_CAPACITY, journal) : null;
+    }
+
+    /**
+     * Replays the journal records as balance deltas. Every change is applied and recorded under the journal lock,
+     * so the records are in the apply order and a replayed prefix never debits money that was not yet there.
+     */
+    private void restore(TransferJournal journal) {
+        logger.info("Restoring accounts from the journal...");
+        try {
+            long from = snapshotFile != null ? BalanceSnapshot.load(snapshotFile, accounts, lastAccountNumber) : 0;
+            logger.info("[{}] accounts are loaded from the snapshot at journal position [{}]!", accounts.size(), from);
+            journal.replay(from, Long.MAX_VALUE, (type, sourceNumber, targetNumber, amount) -> {
+                switch (type) {
+                    case TransferJournal.OPEN:
+                        accounts.open(Iban.format(targetNumber));
+                        lastAccountNumber.accumulateAndGet(targetNumber, Math::max);
+                        break;
+                    case TransferJournal.DEPOSIT:
+                        accounts.deposit(Iban.format(targetNumber), MinorUnits.toBigDecimal(amount));
+                        break;
+                    case TransferJournal.TRANSFER:
+                        accounts.deposit(Iban.format(targetNumber), MinorUnits.toBigDecimal(amount));
+                        accounts.deposit(Iban.format(sourceNumber), MinorUnits.toBigDecimal(-amount));
+                        break;
+                    case TransferJournal.CLEAR:
+                        accounts.clear();
+                        lastAccountNumber.set(0);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown journal record type " + type);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("[{}] accounts are restored from the journal!", accounts.size());
+    }
+
+    /**
+     * Writes a snapshot of the journal up to its durable position on a background thread every period.
+     * The snapshot is built from the previous one and the journal, the accounts are not locked meanwhile.
+     */
+    public void scheduleSnapshots(long periodSeconds) {
+        if (journal == null || snapshotFile == null) {
+            throw new IllegalStateException("Snapshots need a journal and a snapshot file");
+        }
+        snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "balance-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleWithFixedDelay(this::snapshot, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return journal position the written snapshot covers
+     */
+    public long snapshot() {
+        try {
+            return BalanceSnapshot.write(snapshotFile, journal);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Writing snapshot [{}] is failed: {}", snapshotFile, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Starts writing the deposits and transfers to binary audit files in the folder,
+     * keeping at most {@code maxFiles} files of {@code maxFileBytes}.
+     */
+    public void enableAudit(Path folder, long maxFileBytes, int maxFiles) throws IOException {
+        audit = new AuditLog(folder, AuditLog.DEFAULT_CAPACITY, maxFileBytes, maxFiles, Iban::parseNumber);
+    }
 
     @Override
     public void start() {
         logger.info("SimpleBank is starting...");
-        rest = new RestServer(this);
-        rest.start();
+        rest = Vertx.vertx();
+        RestServer.deploy(rest, this, metrics,
+                Integer.getInteger("simple.bank.rest.instances", Runtime.getRuntime().availableProcessors())).join();
+        binary = new BinaryServer(this, Integer.getInteger("simple.bank.binary.port", BinaryServer.DEFAULT_PORT));
+        binary.start();
         logger.info("SimpleBank is ready!");
     }
 
@@ -26,7 +164,22 @@ public class SimpleBank implements Bank {
     public void stop() {
         logger.info("Stopping SimpleBank...");
         if (rest != null) {
-            rest.stop();
+            rest.close();
+        }
+        if (binary != null) {
+            binary.stop();
+        }
+        if (engine != null) {
+            engine.close();
+        }
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (audit != null) {
+            audit.close();
         }
         logger.info("SimpleBank was stopped!");
         System.exit(0);
@@ -34,87 +187,293 @@ public class SimpleBank implements Bank {
 
     @Override
     public String openAccount() {
-        logger.info("Account is opening...");
-        String generatedIban = String.format("BANK_%08d", accounts.size() + 1);
-        accounts.put(generatedIban, new Account());
-        logger.info(String.format("Account [%s] is opened!", generatedIban));
-        return String.format("{\"value\":{\"iban\":\"%s\"}}", generatedIban);
+        return openAccountAsync().join();
+    }
+
+    @Override
+    public CompletableFuture<String> openAccountAsync() {
+        logger.debug("Account is opening...");
+        long number = lastAccountNumber.incrementAndGet();
+        String generatedIban = Iban.format(number);
+        return journaled(TransferJournal.OPEN, number, () -> accounts.open(generatedIban)).thenApply(v -> {
+            logger.debug("Account [{}] is opened!", generatedIban);
+            return String.format("{\"value\":{\"iban\":\"%s\"}}", generatedIban);
+        });
     }
 
     @Override
     public void addMoneyToAccount(String iban, BigDecimal value) {
-        logger.info("Deposit is starting...");
+        await(addMoneyToAccountAsync(iban, value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addMoneyToAccountAsync(String iban, BigDecimal value) {
+        logger.debug("Deposit is starting...");
         if (iban == null || value.compareTo(BigDecimal.valueOf(0.0)) == 0) {
             logger.error("Wrong input data for deposit!");
-            return;
+            return CompletableFuture.completedFuture(false);
+        }
+        return depositAsync(iban, value);
+    }
+
+    private CompletableFuture<Boolean> depositAsync(String iban, BigDecimal value) {
+        if (engine != null) {
+            long start = System.nanoTime();
+            return engine.deposit(iban, value).whenComplete((deposited, e) -> {
+                metrics.recordStage(Stages.ENGINE_APPLY, start);
+                if (e == null) {
+                    audit(AuditLog.DEPOSIT, deposited, null, iban, value);
+                }
+                if (Boolean.TRUE.equals(deposited)) {
+                    logger.debug("Deposit [{}] to account [{}] is completed!", value, iban);
+                }
+            });
         }
-        BankAccount account = accounts.get(iban);
-        if (account != null) {
-            account.deposit(value);
+        if (journal != null) {
+            return journaled(TransferJournal.DEPOSIT, null, iban, value,
+                    () -> accounts.contains(iban) && deposit(iban, value));
         }
-        logger.info("Deposit [{}] to account [{}] is completed!", value, iban);
+        return CompletableFuture.completedFuture(deposit(iban, value));
+    }
+
+    private boolean deposit(String iban, BigDecimal value) {
+        try {
+            accounts.deposit(iban, value);
+        } catch (ArithmeticException e) {
+            logger.error("Wrong amount [{}] for deposit: {}", value, e.getMessage());
+            audit(AuditLog.DEPOSIT, false, null, iban, value);
+            return false;
+        }
+        audit(AuditLog.DEPOSIT, true, null, iban, value);
+        logger.debug("Deposit [{}] to account [{}] is completed!", value, iban);
+        return true;
     }
 
     @Override
     public void transferMoney(String sourceIban, String targetIban, BigDecimal value) {
-        logger.info("Transfer is starting...");
+        await(transferMoneyAsync(sourceIban, targetIban, value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> transferMoneyAsync(String sourceIban, String targetIban, BigDecimal value) {
+        logger.debug("Transfer is starting...");
         if (sourceIban == null || targetIban == null || value.compareTo(BigDecimal.valueOf(0.0)) == 0) {
             logger.error("Wrong input data for transfer!");
-            return;
+            return CompletableFuture.completedFuture(false);
         }
         if (sourceIban.equals(targetIban)) {
             logger.warn("Source and target accounts are the same! Transfer will interrupted!");
-            return;
+            return CompletableFuture.completedFuture(false);
         }
-        BankAccount sourceAccount = accounts.get(sourceIban);
-        BankAccount targetAccount = accounts.get(targetIban);
-        if (sourceAccount != null && targetAccount != null) {
-            if (sourceAccount.withdraw(value)) {
-                targetAccount.deposit(value);
-                logger.info("Transfer [{}] from [{}] to [{}] is completed!", value, sourceIban, targetIban);
-            } else {
-                logger.error("Not enough money on account [{}]! Transfer will interrupted!", sourceIban);
-            }
-        } else {
+        if (!accounts.contains(sourceIban) || !accounts.contains(targetIban)) {
             logger.error("Source or Target IBAN is wrong! Transfer will interrupted!");
+            return CompletableFuture.completedFuture(false);
+        }
+        return transferAsync(sourceIban, targetIban, value);
+    }
+
+    private CompletableFuture<Boolean> transferAsync(String sourceIban, String targetIban, BigDecimal value) {
+        if (engine != null) {
+            long start = System.nanoTime();
+            return engine.transfer(sourceIban, targetIban, value).whenComplete((transferred, e) -> {
+                metrics.recordStage(Stages.ENGINE_APPLY, start);
+                if (e == null) {
+                    audit(AuditLog.TRANSFER, transferred, sourceIban, targetIban, value);
+                }
+                if (Boolean.TRUE.equals(transferred)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Transfer [{}] from [{}] to [{}] is completed!", value, sourceIban, targetIban);
+                    }
+                } else if (e == null) {
+                    logger.error("Transfer [{}] from [{}] to [{}] is declined!", value, sourceIban, targetIban);
+                }
+            });
+        }
+        if (journal != null) {
+            return journaled(TransferJournal.TRANSFER, sourceIban, targetIban, value,
+                    () -> auditedTransfer(sourceIban, targetIban, value));
+        }
+        return CompletableFuture.completedFuture(auditedTransfer(sourceIban, targetIban, value));
+    }
+
+    private boolean auditedTransfer(String sourceIban, String targetIban, BigDecimal value) {
+        boolean transferred = transfer(sourceIban, targetIban, value);
+        audit(AuditLog.TRANSFER, transferred, sourceIban, targetIban, value);
+        return transferred;
+    }
+
+    private boolean transfer(String sourceIban, String targetIban, BigDecimal value) {
+        boolean withdrawn;
+        try {
+            withdrawn = accounts.withdraw(sourceIban, value);
+        } catch (ArithmeticException e) {
+            logger.error("Wrong amount [{}] for transfer: {}", value, e.getMessage());
+            return false;
+        }
+        if (!withdrawn) {
+            logger.error("Not enough money on account [{}]! Transfer will interrupted!", sourceIban);
+            return false;
+        }
+        try {
+            accounts.deposit(targetIban, value);
+        } catch (ArithmeticException e) {
+            accounts.deposit(sourceIban, value);
+            logger.error("Account [{}] can not accept [{}]! Transfer will interrupted!", targetIban, value);
+            return false;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Transfer [{}] from [{}] to [{}] is completed!", value, sourceIban, targetIban);
+        }
+        return true;
+    }
+
+    /**
+     * Applies the change on the caller thread and appends its record under the journal lock (see
+     * {@link TransferJournal#appendApplied}). The result completes only when the record is on disk,
+     * a change that was not applied is not journaled.
+     */
+    private CompletableFuture<Boolean> journaled(int type, String sourceIban, String targetIban, BigDecimal value,
+                                                 BooleanSupplier apply) {
+        long amount;
+        try {
+            amount = MinorUnits.of(value);
+        } catch (ArithmeticException e) {
+            logger.error("Wrong amount [{}] for the journal: {}", value, e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        long sourceNumber = sourceIban != null ? Iban.parseNumber(sourceIban) : 0;
+        long targetNumber = Iban.parseNumber(targetIban);
+        if (sourceNumber < 0 || targetNumber < 0) {
+            logger.error("IBAN [{}] or [{}] can not be journaled!", sourceIban, targetIban);
+            return CompletableFuture.completedFuture(false);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Void> durable = journal.appendApplied(type, sourceNumber, targetNumber, amount, apply);
+        if (durable == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return durable.thenApply(v -> {
+            metrics.recordStage(Stages.JOURNAL_COMMIT, start);
+            return true;
+        });
+    }
+
+    /**
+     * Applies an account change that has no amount, journaled if there is a journal.
+     */
+    private CompletableFuture<Void> journaled(int type, long targetNumber, Runnable apply) {
+        if (journal == null) {
+            apply.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> durable = journal.appendApplied(type, 0, targetNumber, 0, () -> {
+            apply.run();
+            return true;
+        });
+        if (durable == null) {
+            CompletableFuture<Void> closed = new CompletableFuture<>();
+            closed.completeExceptionally(new IllegalStateException("Journal is closed"));
+            return closed;
+        }
+        return durable;
+    }
+
+    private void audit(int type, boolean completed, String sourceIban, String targetIban, BigDecimal value) {
+        AuditLog log = audit;
+        if (log == null) {
+            return;
+        }
+        long amount;
+        try {
+            amount = MinorUnits.of(value);
+        } catch (ArithmeticException e) {
+            amount = -1;
+        }
+        log.record(type, completed, sourceIban, targetIban, amount);
+    }
+
+    private static void await(CompletableFuture<Boolean> result) {
+        try {
+            result.join();
+        } catch (CompletionException e) {
+            logger.error(e.getCause().getMessage());
         }
     }
 
     @Override
     public String getAccountStatus(String iban) {
-        logger.info("Getting account status is starting...");
+        logger.debug("Getting account status is starting...");
         if (iban == null) {
             logger.error("IBAN is empty! Getting status will interrupted!");
             return "{}";
         }
-        BankAccount account = accounts.get(iban);
-        logger.info("Getting account status is completed!");
-        if (account != null) {
-            return String.format("{\"value\":{\"iban\":\"%s\",\"amount\":\"%s\"}}", iban, account.status());
+        BigDecimal amount = accounts.status(iban);
+        logger.debug("Getting account status is completed!");
+        if (amount != null) {
+            return String.format("{\"value\":{\"iban\":\"%s\",\"amount\":\"%s\"}}", iban, amount);
         }
         return "{}";
     }
 
+    @Override
+    public BigDecimal getAccountAmount(String iban) {
+        return iban != null ? accounts.status(iban) : null;
+    }
+
     @Override
     public String getAllAccounts() {
         logger.info("Reading all accounts...");
         Set<String> accountsList = new HashSet<>();
-        accounts.forEach((iban, account) ->
-               accountsList.add(String.format("{\"iban\":\"%s\",\"amount\":\"%s\"}", iban, account.status()))
+        accounts.forEach((iban, amount) ->
+               accountsList.add(String.format("{\"iban\":\"%s\",\"amount\":\"%s\"}", iban, amount))
         );
         logger.info("Reading all accounts is completed!");
         return String.format("{\"value\":%s, \"@odata.count\":%s}", accountsList.toString(), accountsList.size());
     }
 
+    @Override
+    public String forEachAccount(String afterIban, int limit, BiConsumer<String, BigDecimal> action) {
+        long afterNumber = afterIban != null ? Iban.parseNumber(afterIban) : 0;
+        if (afterNumber < 0) {
+            logger.error("IBAN [{}] is wrong! Reading accounts will interrupted!", afterIban);
+            return null;
+        }
+        long lastNumber = accounts.forEachAfter(afterNumber, limit, action);
+        return lastNumber >= 0 ? Iban.format(lastNumber) : null;
+    }
+
     @Override
     public void deleteAllAccounts() {
+        deleteAllAccountsAsync().join();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAllAccountsAsync() {
         logger.info("Deleting all accounts...");
-        accounts.clear();
-        logger.info("Deleting all accounts is completed!");
+        return journaled(TransferJournal.CLEAR, 0, () -> {
+            accounts.clear();
+            lastAccountNumber.set(0);
+        }).thenRun(() -> logger.info("Deleting all accounts is completed!"));
     }
 
-    public static void main(String[] args) {
-        SimpleBank bank = new SimpleBank();
+    public static void main(String[] args) throws IOException {
+        AccountStore accounts = "compact".equals(System.getProperty("simple.bank.store"))
+                ? new CompactAccountStore()
+                : new MapAccountStore(AccountType.valueOf(System.getProperty("simple.bank.account", "BIG_DECIMAL")));
+        String journalFile = System.getProperty("simple.bank.journal");
+        TransferJournal journal = journalFile != null ? new TransferJournal(Paths.get(journalFile)) : null;
+        String snapshotFile = System.getProperty("simple.bank.snapshot");
+        SimpleBank bank = new SimpleBank(accounts, Integer.getInteger("simple.bank.shards", 0), journal,
+                snapshotFile != null ? Paths.get(snapshotFile) : null);
+        if (journal != null && snapshotFile != null) {
+            bank.scheduleSnapshots(Long.getLong("simple.bank.snapshot.period", 60));
+        }
+        String auditFolder = System.getProperty("simple.bank.audit");
+        if (auditFolder != null) {
+            bank.enableAudit(Paths.get(auditFolder),
+                    Long.getLong("simple.bank.audit.maxFileMB", AuditLog.DEFAULT_MAX_FILE_BYTES >> 20) << 20,
+                    Integer.getInteger("simple.bank.audit.files", AuditLog.DEFAULT_MAX_FILES));
+        }
         bank.start();
 
         while (!Thread.currentThread().isInterrupted()) {
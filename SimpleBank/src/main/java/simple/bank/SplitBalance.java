@@ -0,0 +1,70 @@
+package simple.bank;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Balance in minor units spread over cells on separate cache lines, like {@link java.util.concurrent.atomic.LongAdder}.
+ * <p>
+ * A deposit adds to a random cell without a CAS loop, so concurrent deposits rarely touch the same line.
+ * Withdrawals take the lock of the balance and borrow from the cells one by one. Being the only ones
+ * to subtract, they see every cell only growing: a sum of at least the amount is always collected,
+ * no cell goes below zero, and a withdrawal is declined only if the balance was short when it started.
+ */
+public final class SplitBalance {
+    /** Longs per cell, a 64-byte cache line. */
+    private static final int PAD = 8;
+    static final int DEFAULT_CELLS = cellsFor(Runtime.getRuntime().availableProcessors());
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    public SplitBalance(int cellsQty, long initial) {
+        if (cellsQty < 1 || Integer.bitCount(cellsQty) != 1) {
+            throw new IllegalArgumentException("Cells quantity must be a power of two: " + cellsQty);
+        }
+        this.mask = cellsQty - 1;
+        // one more line in front, so the first cell does not share a line with the array header
+        this.cells = new AtomicLongArray((cellsQty + 1) * PAD);
+        cells.set(index(0), initial);
+    }
+
+    public void deposit(long delta) {
+        cells.getAndAdd(index(ThreadLocalRandom.current().nextInt() & mask), delta);
+    }
+
+    public synchronized boolean withdraw(long delta) {
+        if (sum() < delta) {
+            return false;
+        }
+        long remaining = delta;
+        for (int cell = 0; remaining > 0; cell++) {
+            int index = index(cell);
+            long take = Math.min(cells.get(index), remaining);
+            if (take > 0) {
+                cells.getAndAdd(index, -take);
+                remaining -= take;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Not a snapshot: deposits made during the call may or may not be counted.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int cell = 0; cell <= mask; cell++) {
+            sum += cells.get(index(cell));
+        }
+        return sum;
+    }
+
+    private static int index(int cell) {
+        return (cell + 1) * PAD;
+    }
+
+    private static int cellsFor(int processors) {
+        return Integer.highestOneBit(Math.max(1, processors - 1)) << 1;
+    }
+}
@@ -0,0 +1,18 @@
+package simple.bank;
+
+import common.LatencyMetrics;
+
+/**
+ * Internal stages of an operation of the bank, each one has its latency series.
+ */
+final class Stages {
+    static final String ENGINE_APPLY = "engine_apply";
+    static final String JOURNAL_COMMIT = "journal_commit";
+
+    private Stages() {
+    }
+
+    static LatencyMetrics metrics() {
+        return new LatencyMetrics("bank_stage_duration_seconds", ENGINE_APPLY, JOURNAL_COMMIT);
+    }
+}
@@ -0,0 +1,257 @@
+package simple.bank;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Append-only journal of the balance changes in a memory-mapped file of fixed-size records.
+ * <p>
+ * Appenders copy their record into the mapped region and get a future that completes once the record is on disk.
+ * Changes that are journaled are applied through {@link #appendApplied}, so the record order is the apply order.
+ * A flusher thread forces the region once per group of records, when {@code maxBatch} records are pending or
+ * {@code maxDelayMicros} passed since the first of them, so many operations share one fsync.
+ * <p>
+ * Record layout: int type, int reserved, long source account number, long target account number,
+ * long amount in minor units. The type is written last, a zero type marks the end of the journal.
+ */
+public class TransferJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TransferJournal.class);
+
+    public static final int RECORD_SIZE = 32;
+    public static final int OPEN = 1;
+    public static final int DEPOSIT = 2;
+    public static final int TRANSFER = 3;
+    public static final int CLEAR = 4;
+    static final int DEFAULT_MAX_BATCH = 4096;
+    static final long DEFAULT_MAX_DELAY_MICROS = 1_000;
+    private static final long REGION_SIZE = 64L << 20;
+
+    /**
+     * Receives the journal records in append order.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void accept(int type, long sourceNumber, long targetNumber, long amount);
+    }
+
+    private final FileChannel channel;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Thread flusher;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+    private volatile long durablePosition;
+    private List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private long firstPendingAt;
+    private volatile boolean running = true;
+
+    public TransferJournal(Path file) throws IOException {
+        this(file, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    public TransferJournal(Path file, int maxBatch, long maxDelayMicros) throws IOException {
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.position = findEnd();
+        this.durablePosition = position;
+        map(position - position % REGION_SIZE);
+        this.flusher = new Thread(this::flushLoop, "transfer-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Reads the records from the start of the journal up to the first empty or torn one.
+     *
+     * @return file position after the last record
+     */
+    public long replay(RecordHandler handler) throws IOException {
+        return replay(0, Long.MAX_VALUE, handler);
+    }
+
+    /**
+     * Reads the records between the file positions {@code from} and {@code to}, stopping at the first empty or torn one.
+     *
+     * @return file position after the last record
+     */
+    public long replay(long from, long to, RecordHandler handler) throws IOException {
+        long end = Math.min(to, channel.size());
+        long offset = from;
+        while (offset < end) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(REGION_SIZE, end - offset));
+            for (int i = 0; i + RECORD_SIZE <= buffer.limit(); i += RECORD_SIZE) {
+                int type = buffer.getInt(i);
+                if (type < OPEN || type > CLEAR) {
+                    return offset + i;
+                }
+                handler.accept(type, buffer.getLong(i + 8), buffer.getLong(i + 16), buffer.getLong(i + 24));
+            }
+            offset += buffer.limit();
+        }
+        return offset;
+    }
+
+    /**
+     * @return file position up to which the records are forced to disk
+     */
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * @return future completed when the record and all records appended before it are forced to disk
+     */
+    public CompletableFuture<Void> append(int type, long sourceNumber, long targetNumber, long amount) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (this) {
+            if (!running) {
+                durable.completeExceptionally(new IllegalStateException("Journal is closed"));
+                return durable;
+            }
+            try {
+                if (position + RECORD_SIZE > regionStart + REGION_SIZE) {
+                    region.force();
+                    map(regionStart + REGION_SIZE);
+                }
+            } catch (IOException e) {
+                durable.completeExceptionally(new UncheckedIOException(e));
+                return durable;
+            }
+            int i = (int) (position - regionStart);
+            region.putLong(i + 8, sourceNumber);
+            region.putLong(i + 16, targetNumber);
+            region.putLong(i + 24, amount);
+            region.putInt(i + 4, 0);
+            region.putInt(i, type);
+            position += RECORD_SIZE;
+            if (pending.isEmpty()) {
+                firstPendingAt = System.nanoTime();
+            }
+            pending.add(durable);
+            if (pending.size() == 1 || pending.size() >= maxBatch) {
+                notifyAll();
+            }
+        }
+        return durable;
+    }
+
+    /**
+     * Applies the change and appends its record under the journal lock, so the records are in the order the changes
+     * were applied in and a replay never meets a record before one it depends on (a transfer before its funding deposit).
+     *
+     * @param apply applies the change in memory, returns false if it was not applied and must not be journaled
+     * @return future completed when the record is on disk, null if nothing was applied (also once the journal is closed)
+     */
+    public CompletableFuture<Void> appendApplied(int type, long sourceNumber, long targetNumber, long amount,
+                                                 BooleanSupplier apply) {
+        synchronized (this) {
+            if (!running) {
+                logger.error("Journal is closed! The change will not be applied!");
+                return null;
+            }
+            return apply.getAsBoolean() ? append(type, sourceNumber, targetNumber, amount) : null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Binary search for the first empty record. The records are appended back to back into zero-filled regions,
+     * so the end is found without reading the whole history.
+     */
+    private long findEnd() throws IOException {
+        long low = 0;
+        long high = channel.size() / RECORD_SIZE;
+        ByteBuffer type = ByteBuffer.allocate(4);
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            type.clear();
+            channel.read(type, middle * RECORD_SIZE);
+            int value = type.getInt(0);
+            if (value >= OPEN && value <= CLEAR) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low * RECORD_SIZE;
+    }
+
+    private void map(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+        regionStart = start;
+    }
+
+    private void flushLoop() {
+        for (;;) {
+            List<CompletableFuture<Void>> batch;
+            MappedByteBuffer flushed;
+            long flushedPosition;
+            synchronized (this) {
+                try {
+                    while (running && !batchReady()) {
+                        if (pending.isEmpty()) {
+                            wait();
+                        } else {
+                            long leftNanos = maxDelayNanos - (System.nanoTime() - firstPendingAt);
+                            TimeUnit.NANOSECONDS.timedWait(this, Math.max(leftNanos, 1));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+                if (pending.isEmpty() && !running) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                flushed = region;
+                flushedPosition = position;
+            }
+            try {
+                flushed.force();
+                durablePosition = flushedPosition;
+                batch.forEach(durable -> durable.complete(null));
+            } catch (RuntimeException e) {
+                logger.error("Journal flush failed: {}", e.getMessage());
+                batch.forEach(durable -> durable.completeExceptionally(e));
+            }
+        }
+    }
+
+    private boolean batchReady() {
+        return pending.size() >= maxBatch
+                || !pending.isEmpty() && System.nanoTime() - firstPendingAt >= maxDelayNanos;
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simple.bank.AccountStore;
+import simple.bank.CompactAccountStore;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompactAccountStoreTest {
+
+    @Test
+    public void openAndTransferTest() {
+        AccountStore store = new CompactAccountStore();
+        store.open("BANK_00000001");
+        store.open("BANK_00070000");
+        store.deposit("BANK_00000001", BigDecimal.valueOf(12.47));
+
+        Assert.assertTrue(store.withdraw("BANK_00000001", BigDecimal.valueOf(7.17)));
+        store.deposit("BANK_00070000", BigDecimal.valueOf(7.17));
+
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(new BigDecimal("5.30"), store.status("BANK_00000001"));
+        Assert.assertEquals(new BigDecimal("7.17"), store.status("BANK_00070000"));
+    }
+
+    @Test
+    public void unknownIbanTest() {
+        AccountStore store = new CompactAccountStore();
+        store.open("BANK_00000001");
+
+        Assert.assertFalse(store.contains("BANK_00000002"));
+        Assert.assertFalse(store.contains("OTHER_00000001"));
+        Assert.assertFalse(store.withdraw("BANK_00000002", BigDecimal.ONE));
+        Assert.assertNull(store.status("BANK_99999999"));
+    }
+
+    @Test
+    public void forEachAndClearTest() {
+        AccountStore store = new CompactAccountStore();
+        store.open("BANK_00000001");
+        store.open("BANK_00000002");
+        store.deposit("BANK_00000002", BigDecimal.valueOf(3.50));
+
+        Map<String, BigDecimal> balances = new HashMap<>();
+        store.forEach(balances::put);
+        Assert.assertEquals(2, balances.size());
+        Assert.assertEquals(new BigDecimal("3.50"), balances.get("BANK_00000002"));
+
+        store.clear();
+        Assert.assertEquals(0, store.size());
+        Assert.assertFalse(store.contains("BANK_00000002"));
+    }
+}
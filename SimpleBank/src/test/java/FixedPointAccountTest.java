@@ -0,0 +1,100 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simple.bank.AccountType;
+import simple.bank.BankAccount;
+import simple.bank.FixedPointAccount;
+import simple.bank.SimpleBank;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+public class FixedPointAccountTest {
+
+    private static BankAccount openFixedPointAccount() {
+        return AccountType.FIXED_POINT.create();
+    }
+
+    @Test
+    public void depositAndWithdrawTest() {
+        BankAccount account = openFixedPointAccount();
+        account.deposit(BigDecimal.valueOf(12.47));
+
+        Assert.assertTrue(account.withdraw(BigDecimal.valueOf(7.17)));
+        Assert.assertEquals(new BigDecimal("5.30"), account.status());
+    }
+
+    @Test
+    public void withdrawMoreThanBalanceTest() {
+        BankAccount account = openFixedPointAccount();
+        account.deposit(BigDecimal.valueOf(1.00));
+
+        Assert.assertFalse(account.withdraw(BigDecimal.valueOf(1.01)));
+        Assert.assertEquals(new BigDecimal("1.00"), account.status());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectMoreThanTwoDecimalPlacesTest() {
+        openFixedPointAccount().deposit(new BigDecimal("0.001"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectOverflowTest() {
+        BankAccount account = openFixedPointAccount();
+        account.deposit(BigDecimal.valueOf(Long.MAX_VALUE, 2));
+        account.deposit(new BigDecimal("0.01"));
+    }
+
+    @Test
+    public void bankIgnoresDepositWithMoreThanTwoDecimalPlacesTest() {
+        SimpleBank bank = new SimpleBank(AccountType.FIXED_POINT);
+        String response = bank.openAccount();
+        String iban = response.substring(response.indexOf("BANK_"), response.lastIndexOf('"'));
+        bank.addMoneyToAccount(iban, BigDecimal.valueOf(10.50));
+        bank.addMoneyToAccount(iban, new BigDecimal("0.005"));
+
+        Assert.assertTrue(bank.getAccountStatus(iban).contains("\"amount\":\"10.50\""));
+    }
+
+    @Test
+    public void contendedAccountKeepsExactNonNegativeBalanceTest() {
+        BankAccount account = openFixedPointAccount();
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 50_000; i++) {
+                account.deposit(new BigDecimal("0.01"));
+            }
+        });
+        Assert.assertEquals(new BigDecimal("4000.00"), account.status());
+
+        AtomicLong withdrawn = new AtomicLong();
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            while (account.withdraw(new BigDecimal("0.03"))) {
+                withdrawn.addAndGet(3);
+            }
+        });
+        Assert.assertEquals(399_999, withdrawn.get());
+        Assert.assertEquals(new BigDecimal("0.01"), account.status());
+    }
+
+    @Test
+    public void promotedAccountKeepsBalanceTest() {
+        FixedPointAccount account = (FixedPointAccount) openFixedPointAccount();
+        account.deposit(BigDecimal.valueOf(10.00));
+        Assert.assertFalse(account.isSplit());
+
+        account.promote();
+
+        Assert.assertTrue(account.isSplit());
+        Assert.assertEquals(new BigDecimal("10.00"), account.status());
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 1_000; i++) {
+                account.deposit(new BigDecimal("0.02"));
+                Assert.assertTrue(account.withdraw(new BigDecimal("0.01")));
+            }
+        });
+        Assert.assertEquals(new BigDecimal("90.00"), account.status());
+        Assert.assertFalse(account.withdraw(new BigDecimal("90.01")));
+        Assert.assertTrue(account.withdraw(new BigDecimal("90.00")));
+        Assert.assertEquals(new BigDecimal("0.00"), account.status());
+    }
+}
@@ -0,0 +1,125 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simple.bank.AccountStore;
+import simple.bank.CompactAccountStore;
+import simple.bank.ShardedTransferEngine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ShardedTransferEngineTest {
+    private static final int ACCOUNTS_QTY = 32;
+
+    @Test
+    public void totalMoneyIsConservedTest() throws InterruptedException {
+        AccountStore store = new CompactAccountStore();
+        for (int i = 1; i <= ACCOUNTS_QTY; i++) {
+            store.open(String.format("BANK_%08d", i));
+            store.deposit(String.format("BANK_%08d", i), BigDecimal.valueOf(100));
+        }
+
+        try (ShardedTransferEngine engine = new ShardedTransferEngine(store, 4, 1024)) {
+            List<Thread> clients = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                long seed = c;
+                clients.add(new Thread(() -> {
+                    Random random = new Random(seed);
+                    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                    for (int i = 0; i < 10_000; i++) {
+                        // half of the transfers hit the first (hot) account
+                        int source = random.nextBoolean() ? 1 : random.nextInt(ACCOUNTS_QTY) + 1;
+                        int target = random.nextInt(ACCOUNTS_QTY) + 1;
+                        CompletableFuture<Boolean> result = engine.transfer(
+                                String.format("BANK_%08d", source),
+                                String.format("BANK_%08d", target),
+                                BigDecimal.valueOf(random.nextInt(500), 2));
+                        results.add(result.exceptionally(e -> false));
+                    }
+                    results.forEach(CompletableFuture::join);
+                }));
+            }
+            clients.forEach(Thread::start);
+            for (Thread client : clients) {
+                client.join();
+            }
+        }
+
+        AtomicReference<BigDecimal> total = new AtomicReference<>(BigDecimal.ZERO);
+        store.forEach((iban, amount) -> {
+            Assert.assertTrue(amount.signum() >= 0);
+            total.accumulateAndGet(amount, BigDecimal::add);
+        });
+        Assert.assertEquals(0, BigDecimal.valueOf(100L * ACCOUNTS_QTY).compareTo(total.get()));
+    }
+
+    @Test
+    public void depositToUnknownAccountTest() {
+        AccountStore store = new CompactAccountStore();
+        try (ShardedTransferEngine engine = new ShardedTransferEngine(store, 2, 16)) {
+            Assert.assertFalse(engine.deposit("BANK_00000001", BigDecimal.ONE).join());
+        }
+    }
+
+    @Test
+    public void closeFailsPendingTransfersAndKeepsMoneyTest() {
+        AccountStore store = new CompactAccountStore();
+        store.open("BANK_00000001");
+        store.open("BANK_00000002");
+        store.deposit("BANK_00000001", BigDecimal.valueOf(1000));
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        ShardedTransferEngine engine = new ShardedTransferEngine(store, 2, 1024);
+        for (int i = 0; i < 1000; i++) {
+            results.add(engine.transfer("BANK_00000001", "BANK_00000002", BigDecimal.ONE));
+        }
+        engine.close();
+        results.add(engine.transfer("BANK_00000001", "BANK_00000002", BigDecimal.ONE));
+
+        // every future is completed, those left in the queues exceptionally
+        for (CompletableFuture<Boolean> result : results) {
+            Assert.assertTrue(result.isDone());
+        }
+        Assert.assertTrue(results.get(results.size() - 1).isCompletedExceptionally());
+        Assert.assertEquals(0, BigDecimal.valueOf(1000).compareTo(
+                store.status("BANK_00000001").add(store.status("BANK_00000002"))));
+    }
+
+    @Test
+    public void transfersSubmittedDuringCloseAreAppliedOnceTest() throws InterruptedException {
+        AccountStore store = new CompactAccountStore();
+        store.open("BANK_00000001");
+        store.open("BANK_00000002");
+        store.deposit("BANK_00000001", BigDecimal.valueOf(100_000));
+        ShardedTransferEngine engine = new ShardedTransferEngine(store, 2, 1024);
+        List<CompletableFuture<Boolean>> results = Collections.synchronizedList(new ArrayList<>());
+        Thread[] submitters = new Thread[4];
+        for (int i = 0; i < submitters.length; i++) {
+            submitters[i] = new Thread(() -> {
+                for (int j = 0; j < 20_000; j++) {
+                    results.add(engine.transfer("BANK_00000001", "BANK_00000002", BigDecimal.ONE));
+                }
+            });
+            submitters[i].start();
+        }
+        Thread.sleep(5);
+        engine.close();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        // a transfer is either applied and completed once, or failed and not applied
+        long completed = 0;
+        for (CompletableFuture<Boolean> result : results) {
+            Assert.assertTrue(result.isDone());
+            if (!result.isCompletedExceptionally() && result.join()) {
+                completed++;
+            }
+        }
+        Assert.assertEquals(0, BigDecimal.valueOf(completed).compareTo(store.status("BANK_00000002")));
+        Assert.assertEquals(0, BigDecimal.valueOf(100_000 - completed).compareTo(store.status("BANK_00000001")));
+    }
+}
@@ -1,13 +1,23 @@
 import io.vertx.core.json.JsonObject;
 import org.junit.*;
 import simple.bank.Bank;
+import simple.bank.BinaryClient;
 import simple.bank.SimpleBank;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsCollectionContaining.hasItems;
 
@@ -110,6 +120,52 @@ public class SimpleBankRestTests {
         Assert.assertEquals(BigDecimal.valueOf(7.17).setScale(2, BigDecimal.ROUND_HALF_UP), targetAccountAmount);
     }
 
+    @Test
+    public void transferMoneyBatchTest() {
+        String sourceIban = getIbanFromResponse(bank.openAccount());
+        String targetIban = getIbanFromResponse(bank.openAccount());
+        bank.addMoneyToAccount(sourceIban, BigDecimal.valueOf(10.00));
+
+        HashMap<String, Object> transfer = new HashMap<>();
+        transfer.put("sourceIban", sourceIban);
+        transfer.put("targetIban", targetIban);
+        transfer.put("amount", 3.50);
+        HashMap<String, Object> tooBigTransfer = new HashMap<>(transfer);
+        tooBigTransfer.put("amount", 100.00);
+
+        given()
+                .contentType("application/json")
+                .body(Arrays.asList(transfer, tooBigTransfer))
+                .when()
+                .post("http://localhost:4200/account/transfer/batch")
+                .then()
+                .statusCode(200)
+                .body("value.completed", contains(true, false));
+
+        JsonObject sourceAccount = new JsonObject(bank.getAccountStatus(sourceIban)).getJsonObject("value");
+        Assert.assertEquals(new BigDecimal("6.50"), new BigDecimal(sourceAccount.getString("amount")));
+        JsonObject targetAccount = new JsonObject(bank.getAccountStatus(targetIban)).getJsonObject("value");
+        Assert.assertEquals(new BigDecimal("3.50"), new BigDecimal(targetAccount.getString("amount")));
+    }
+
+    @Test
+    public void transferMoneyBatchEscapesEchoedIbansTest() {
+        HashMap<String, Object> transfer = new HashMap<>();
+        transfer.put("sourceIban", "BANK_\"1\\\n");
+        transfer.put("targetIban", "BANK_00000002");
+        transfer.put("amount", 1.00);
+
+        given()
+                .contentType("application/json")
+                .body(Arrays.asList(transfer))
+                .when()
+                .post("http://localhost:4200/account/transfer/batch")
+                .then()
+                .statusCode(200)
+                .body("value[0].sourceIban", equalTo("BANK_\"1\\\n"))
+                .body("value[0].completed", equalTo(false));
+    }
+
     @Test
     public void getAccountStatusTest() {
         String iban = getIbanFromResponse(bank.openAccount());
@@ -150,6 +206,30 @@ public class SimpleBankRestTests {
                 .body("value.iban", hasItems("BANK_00000002"));
     }
 
+    @Test
+    public void getAllAccountsPaginatedTest() {
+        bank.openAccount();
+        bank.openAccount();
+        bank.openAccount();
+
+        given()
+                .when()
+                .get("http://localhost:4200/account/getAll?limit=2")
+                .then()
+                .statusCode(200)
+                .body("value.iban", contains("BANK_00000001", "BANK_00000002"))
+                .body("'@odata.nextLink'", containsString("after=BANK_00000002"));
+
+        given()
+                .when()
+                .get("http://localhost:4200/account/getAll?after=BANK_00000002&limit=2")
+                .then()
+                .statusCode(200)
+                .body("value.iban", contains("BANK_00000003"))
+                .body("'@odata.count'", equalTo(1))
+                .body("'@odata.nextLink'", nullValue());
+    }
+
     @Test
     public void deleteAllAccountsTest() {
         bank.openAccount();
@@ -166,4 +246,118 @@ public class SimpleBankRestTests {
         Integer accountsQty = json.getInteger("@odata.count");
         Assert.assertEquals(0, accountsQty.intValue());
     }
+
+    @Test
+    public void metricsTest() {
+        given()
+                .when()
+                .put("http://localhost:4200/account/open")
+                .then()
+                .statusCode(200);
+
+        String metrics = given()
+                .when()
+                .get("http://localhost:4200/metrics")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+        assertThat(metrics, containsString("http_request_duration_seconds_count{route=\"/account/open\"} "));
+        assertThat(metrics, containsString("http_request_duration_seconds{route=\"/account/transfer\",quantile=\"0.99\"}"));
+    }
+
+    @Test
+    public void exactAmountAndMalformedBodyTest() {
+        String iban = getIbanFromResponse(bank.openAccount());
+
+        given()
+                .contentType("application/json")
+                .body("{\"iban\":\"" + iban + "\",\"amount\":0.1}")
+                .when()
+                .post("http://localhost:4200/account/deposit")
+                .then()
+                .statusCode(200);
+        given()
+                .contentType("application/json")
+                .body("{\"iban\":\"" + iban + "\",\"amount\":\"0.20\"}")
+                .when()
+                .post("http://localhost:4200/account/deposit")
+                .then()
+                .statusCode(200);
+
+        given()
+                .contentType("application/json")
+                .body("{\"iban\":\"" + iban + "\"}")
+                .when()
+                .post("http://localhost:4200/account/status")
+                .then()
+                .statusCode(200)
+                .body("value.amount", equalTo("0.30"));
+
+        given()
+                .contentType("application/json")
+                .body("{\"iban\":")
+                .when()
+                .post("http://localhost:4200/account/deposit")
+                .then()
+                .statusCode(400);
+        for (String amount : new String[]{"\"1e1000000000\"", "1e1000000000", "0.001", "1000000000000000000000"}) {
+            given()
+                    .contentType("application/json")
+                    .body("{\"iban\":\"" + iban + "\",\"amount\":" + amount + "}")
+                    .when()
+                    .post("http://localhost:4200/account/deposit")
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    @Test
+    public void binaryProtocolTest() {
+        String source = getIbanFromResponse(bank.openAccount());
+        String target = getIbanFromResponse(bank.openAccount());
+
+        try (BinaryClient client = BinaryClient.connect("localhost", 4300).join()) {
+            List<CompletableFuture<Boolean>> deposits = IntStream.range(0, 100)
+                    .mapToObj(i -> client.deposit(source, new BigDecimal("1.01")))
+                    .collect(Collectors.toList());
+            deposits.forEach(deposit -> Assert.assertTrue(deposit.join()));
+
+            Assert.assertTrue(client.transfer(source, target, new BigDecimal("100.50")).join());
+            Assert.assertFalse(client.transfer(source, target, new BigDecimal("1000.00")).join());
+            Assert.assertEquals(new BigDecimal("0.50"), client.status(source).join());
+            Assert.assertEquals(new BigDecimal("100.50"), client.status(target).join());
+            Assert.assertNull(client.status("BANK_99999999").join());
+        }
+    }
+
+    @Test
+    public void idempotentDepositTest() {
+        String iban = getIbanFromResponse(bank.openAccount());
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("iban", iban);
+        map.put("amount", 10.25);
+        String key = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 3; i++) {
+            given()
+                    .contentType("application/json")
+                    .header("Idempotency-Key", key)
+                    .body(map)
+                .when()
+                    .post("http://localhost:4200/account/deposit")
+                    .then()
+                    .statusCode(200);
+        }
+        Assert.assertEquals(new BigDecimal("10.25"), bank.getAccountAmount(iban));
+
+        given()
+                .contentType("application/json")
+                .header("Idempotency-Key", UUID.randomUUID().toString())
+                .body(map)
+            .when()
+                .post("http://localhost:4200/account/deposit")
+                .then()
+                .statusCode(200);
+        Assert.assertEquals(new BigDecimal("20.50"), bank.getAccountAmount(iban));
+    }
 }
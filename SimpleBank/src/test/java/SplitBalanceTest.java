@@ -0,0 +1,52 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simple.bank.SplitBalance;
+
+import java.util.stream.IntStream;
+
+public class SplitBalanceTest {
+
+    @Test
+    public void withdrawBorrowsAcrossCellsTest() {
+        SplitBalance balance = new SplitBalance(4, 5);
+        // deposits go to random cells, the initial amount stays in the first one
+        for (int i = 0; i < 100; i++) {
+            balance.deposit(1);
+        }
+
+        Assert.assertTrue(balance.withdraw(60));
+        Assert.assertEquals(45, balance.sum());
+        // only all cells together hold the rest
+        Assert.assertTrue(balance.withdraw(45));
+        Assert.assertEquals(0, balance.sum());
+    }
+
+    @Test
+    public void withdrawMoreThanSumIsDeclinedTest() {
+        SplitBalance balance = new SplitBalance(4, 5);
+        balance.deposit(3);
+
+        Assert.assertFalse(balance.withdraw(9));
+        Assert.assertEquals(8, balance.sum());
+        Assert.assertTrue(balance.withdraw(8));
+        Assert.assertFalse(balance.withdraw(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCellsQuantityNotPowerOfTwoTest() {
+        new SplitBalance(3, 0);
+    }
+
+    @Test
+    public void concurrentDepositsAndWithdrawalsKeepExactSumTest() {
+        SplitBalance balance = new SplitBalance(8, 0);
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 10_000; i++) {
+                balance.deposit(3);
+                Assert.assertTrue(balance.withdraw(2));
+            }
+        });
+
+        Assert.assertEquals(80_000, balance.sum());
+    }
+}
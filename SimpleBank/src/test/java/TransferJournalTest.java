@@ -0,0 +1,135 @@
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import simple.bank.AccountType;
+import simple.bank.CompactAccountStore;
+import simple.bank.MapAccountStore;
+import simple.bank.SimpleBank;
+import simple.bank.TransferJournal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class TransferJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void balancesAreRestoredFromJournalTest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("transfers.journal");
+
+        TransferJournal journal = new TransferJournal(file);
+        SimpleBank bank = new SimpleBank(new CompactAccountStore(), 0, journal);
+        bank.openAccount();
+        bank.openAccount();
+        Assert.assertTrue(bank.addMoneyToAccountAsync("BANK_00000001", new BigDecimal("100.00")).join());
+        Assert.assertTrue(bank.transferMoneyAsync("BANK_00000001", "BANK_00000002", new BigDecimal("30.25")).join());
+        Assert.assertFalse(bank.transferMoneyAsync("BANK_00000002", "BANK_00000001", new BigDecimal("500.00")).join());
+        journal.close();
+
+        TransferJournal reopened = new TransferJournal(file);
+        SimpleBank restored = new SimpleBank(new MapAccountStore(AccountType.FIXED_POINT), 0, reopened);
+        Assert.assertTrue(restored.getAccountStatus("BANK_00000001").contains("\"69.75\""));
+        Assert.assertTrue(restored.getAccountStatus("BANK_00000002").contains("\"30.25\""));
+        Assert.assertTrue(restored.openAccount().contains("BANK_00000003"));
+        reopened.close();
+    }
+
+    @Test
+    public void balancesAreRestoredFromSnapshotAndJournalTailTest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("transfers.journal");
+        Path snapshot = folder.getRoot().toPath().resolve("balances.snapshot");
+
+        TransferJournal journal = new TransferJournal(file);
+        SimpleBank bank = new SimpleBank(new CompactAccountStore(), 0, journal, snapshot);
+        bank.openAccount();
+        bank.openAccount();
+        Assert.assertTrue(bank.addMoneyToAccountAsync("BANK_00000001", new BigDecimal("100.00")).join());
+        long covered = bank.snapshot();
+        Assert.assertEquals(3L * TransferJournal.RECORD_SIZE, covered);
+
+        bank.openAccount();
+        Assert.assertTrue(bank.transferMoneyAsync("BANK_00000001", "BANK_00000003", new BigDecimal("40.00")).join());
+        Assert.assertTrue(bank.transferMoneyAsync("BANK_00000001", "BANK_00000002", new BigDecimal("10.50")).join());
+        journal.close();
+
+        TransferJournal reopened = new TransferJournal(file);
+        SimpleBank restored = new SimpleBank(new CompactAccountStore(), 0, reopened, snapshot);
+        Assert.assertTrue(restored.getAccountStatus("BANK_00000001").contains("\"49.50\""));
+        Assert.assertTrue(restored.getAccountStatus("BANK_00000002").contains("\"10.50\""));
+        Assert.assertTrue(restored.getAccountStatus("BANK_00000003").contains("\"40.00\""));
+        Assert.assertTrue(restored.openAccount().contains("BANK_00000004"));
+        reopened.close();
+    }
+
+    @Test
+    public void groupCommitCompletesEveryAppendTest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("group.journal");
+        try (TransferJournal journal = new TransferJournal(file, 64, 500)) {
+            CompletableFuture<?>[] appends = new CompletableFuture<?>[1_000];
+            for (int i = 0; i < appends.length; i++) {
+                appends[i] = journal.append(TransferJournal.DEPOSIT, 0, 1, i);
+            }
+            CompletableFuture.allOf(appends).join();
+        }
+        try (TransferJournal journal = new TransferJournal(file)) {
+            long[] records = new long[1];
+            Assert.assertEquals(1_000L * TransferJournal.RECORD_SIZE, journal.replay((type, source, target, amount) -> records[0]++));
+            Assert.assertEquals(1_000, records[0]);
+        }
+    }
+
+    @Test
+    public void journalPrefixNeverDebitsMissingMoneyTest() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("order.journal");
+        TransferJournal journal = new TransferJournal(file, 64, 100);
+        SimpleBank bank = new SimpleBank(new CompactAccountStore(), 4, journal);
+        for (int i = 0; i < 8; i++) {
+            bank.openAccount();
+        }
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            long seed = c;
+            clients.add(new Thread(() -> {
+                Random random = new Random(seed);
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 5_000; i++) {
+                    // money enters through account 1 and is spread by the transfers right after the deposits
+                    results.add(random.nextInt(10) == 0
+                            ? bank.addMoneyToAccountAsync("BANK_00000001", new BigDecimal("1.00"))
+                            : bank.transferMoneyAsync(String.format("BANK_%08d", random.nextInt(8) + 1),
+                                    String.format("BANK_%08d", random.nextInt(8) + 1), new BigDecimal("0.50")));
+                }
+                results.forEach(result -> result.exceptionally(e -> false).join());
+            }));
+        }
+        clients.forEach(Thread::start);
+        for (Thread client : clients) {
+            client.join();
+        }
+        journal.close();
+
+        Map<Long, Long> balances = new HashMap<>();
+        try (TransferJournal reopened = new TransferJournal(file)) {
+            reopened.replay((type, source, target, amount) -> {
+                balances.merge(target, amount, Long::sum);
+                if (type == TransferJournal.TRANSFER) {
+                    // a crash may cut the journal after any record, each prefix must stay a valid state
+                    Assert.assertTrue(balances.merge(source, -amount, Long::sum) >= 0);
+                }
+            });
+        }
+        for (int i = 1; i <= 8; i++) {
+            Assert.assertEquals(0, BigDecimal.valueOf(balances.get((long) i), 2).compareTo(
+                    bank.getAccountAmount(String.format("BANK_%08d", i))));
+        }
+    }
+}